@@ -0,0 +1,147 @@
+package org.example.clustering;
+
+import java.util.Random;
+
+/**
+ * BenchmarkData generates the seeded, reproducible inputs of the benchmarks:
+ * SPARQL queries of different shapes, query logs, co-occurrence graphs with
+ * community structure and N-Triples lines.
+ */
+final class BenchmarkData {
+
+    static final String PREFIX_NAMESPACE = "http://example.org/";
+    static final String PREDICATE_NAMESPACE = PREFIX_NAMESPACE + "p";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * shapes of the SPARQL queries, every shape uses {@code patterns} predicates.
+     */
+    enum QueryShape {
+        // triple patterns sharing one subject
+        STAR,
+        // triple patterns chained object to subject
+        PATH,
+        // a mandatory pattern and one OPTIONAL group per further pattern
+        OPTIONAL,
+        // one UNION branch per pattern
+        UNION,
+        // star with prefixed names and a FILTER
+        PREFIXED_FILTER;
+
+        String query(int firstPredicate, int patterns) {
+            StringBuilder query = new StringBuilder();
+            if (this == PREFIXED_FILTER) {
+                query.append("PREFIX ex: <").append(PREFIX_NAMESPACE).append("> ");
+            }
+            query.append("SELECT * WHERE { ");
+            for (int i = 0; i < patterns; i++) {
+                String predicate = predicate(firstPredicate + i);
+                switch (this) {
+                    case STAR:
+                        query.append("?s ").append(predicate).append(" ?o").append(i).append(" . ");
+                        break;
+                    case PATH:
+                        query.append("?v").append(i).append(' ').append(predicate).append(" ?v").append(i + 1).append(" . ");
+                        break;
+                    case OPTIONAL:
+                        if (i == 0) {
+                            query.append("?s ").append(predicate).append(" ?o0 ");
+                        } else {
+                            query.append("OPTIONAL { ?s ").append(predicate).append(" ?o").append(i).append(" } ");
+                        }
+                        break;
+                    case UNION:
+                        if (i > 0) {
+                            query.append("UNION ");
+                        }
+                        query.append("{ ?s ").append(predicate).append(" ?o } ");
+                        break;
+                    case PREFIXED_FILTER:
+                        query.append("?s ex:p").append(firstPredicate + i).append(" ?o").append(i).append(" . ");
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown shape " + this);
+                }
+            }
+            if (this == PREFIXED_FILTER) {
+                query.append("FILTER (?o0 != ?o1) ");
+            }
+            return query.append('}').toString();
+        }
+    }
+
+    static String predicate(int id) {
+        return "<" + PREDICATE_NAMESPACE + id + ">";
+    }
+
+    /**
+     * @return a CSV query log with one query per line, predicates are drawn
+     *         from communities of 10 predicates so the queries co-occur in groups
+     */
+    static String queryLog(int queries, int predicates, long seed) {
+        Random random = new Random(seed);
+        QueryShape[] shapes = QueryShape.values();
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < queries; i++) {
+            int community = random.nextInt(Math.max(1, predicates / 10));
+            int first = community * 10 + random.nextInt(6);
+            int patterns = 2 + random.nextInt(4);
+            // the limit keeps the queries apart for the deduplication
+            log.append(shapes[random.nextInt(shapes.length)].query(first, patterns)).append(" LIMIT ").append(i + 1).append('\n');
+        }
+        return log.toString();
+    }
+
+    /**
+     * @return sorted pairs of a co-occurrence graph with communities of 20
+     *         nodes, as (first id, second id, weight) triples in the order of
+     *         the graph weight file
+     */
+    static int[] clusteredGraph(int nodes, long seed) {
+        Random random = new Random(seed);
+        CooccurrenceCounter counter = new CooccurrenceCounter();
+        int communitySize = 20;
+        for (int node = 1; node < nodes; node++) {
+            int communityStart = node / communitySize * communitySize;
+            int innerEdges = 1 + random.nextInt(4);
+            for (int i = 0; i < innerEdges; i++) {
+                int other = communityStart + random.nextInt(communitySize);
+                if (other < nodes && other != node) {
+                    counter.add(node, other, 1 + random.nextInt(20));
+                }
+            }
+            if (random.nextInt(10) == 0) {
+                int other = random.nextInt(nodes);
+                if (other != node) {
+                    counter.add(node, other, 1);
+                }
+            }
+        }
+        long[] pairs = counter.sortedPairs();
+        int[] edges = new int[3 * pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            edges[3 * i] = CooccurrenceCounter.first(pairs[i]);
+            edges[3 * i + 1] = CooccurrenceCounter.second(pairs[i]);
+            edges[3 * i + 2] = counter.count(pairs[i]);
+        }
+        return edges;
+    }
+
+    /**
+     * @return N-Triples lines with IRI and literal objects
+     */
+    static String[] triples(int count, int predicates, long seed) {
+        Random random = new Random(seed);
+        String[] triples = new String[count];
+        for (int i = 0; i < count; i++) {
+            String subject = "<http://example.org/s" + random.nextInt(count) + ">";
+            String object = random.nextBoolean()
+                    ? "<http://example.org/o" + random.nextInt(count) + ">"
+                    : "\"some literal with spaces " + i + "\"@en";
+            triples[i] = subject + " " + predicate(random.nextInt(predicates)) + " " + object + " .";
+        }
+        return triples;
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.clustering;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.query.QueryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Counting predicate co-occurrences of a query log: counting extracted
+ * predicate ids alone and the whole ingestion from CSV text to counts on
+ * threads workers, the path the weight generation takes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CooccurrenceBenchmark {
+
+    @Param({"10000"})
+    public int queries;
+
+    @Param({"500"})
+    public int predicates;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private String queryLog;
+    private List<int[]> predicateIds;
+
+    @Setup
+    public void setUp() {
+        queryLog = BenchmarkData.queryLog(queries, predicates, 42);
+        PredicateExtractor extractor = PredicateExtractor.Type.SYNTAX_TREE.create(new PredicateDictionary());
+        predicateIds = new ArrayList<>();
+        for (String query : queryLog.split("\n")) {
+            predicateIds.add(extractor.predicateIds(QueryFactory.create(query)));
+        }
+    }
+
+    /**
+     * counting of one ingestion worker, the workers of {@link QueryLogIngestion} merge their counters at the end
+     */
+    @Benchmark
+    public CooccurrenceCounter countQueries() {
+        CooccurrenceCounter counter = new CooccurrenceCounter();
+        for (int[] ids : predicateIds) {
+            counter.countQuery(ids);
+        }
+        return counter;
+    }
+
+    @Benchmark
+    public CooccurrenceCounter ingestStringPatterns() {
+        return ingest(PredicateExtractor.Type.STRING_PATTERNS);
+    }
+
+    @Benchmark
+    public CooccurrenceCounter ingestSyntaxTree() {
+        return ingest(PredicateExtractor.Type.SYNTAX_TREE);
+    }
+
+    private CooccurrenceCounter ingest(PredicateExtractor.Type extractorType) {
+        QueryLogIngestion ingestion = new QueryLogIngestion(extractorType.create(new PredicateDictionary()), threads);
+        return ingestion.ingest(new StringReader(queryLog));
+    }
+}
@@ -0,0 +1,124 @@
+package org.example.clustering;
+
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import de.uni_leipzig.mcl.cluster.SparseMatrix;
+import de.uni_leipzig.mcl.cluster.SparseMatrixLabeled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The MCL process of both engines on generated graphs of increasing size:
+ * Cugar's {@link MarkovClustering#expand}, {@link MarkovClustering#inflate}
+ * and {@link MarkovClustering#run}, and the corresponding steps of
+ * {@link CsrMarkovClustering}. Both engines load the graph the way
+ * {@link MarkovClustering#findClusters} does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkovClusteringBenchmark {
+
+    @Param({"200", "800", "2000"})
+    public int nodes;
+
+    // threads of the native engine
+    @Param({"1", "4"})
+    public int threads;
+
+    private final MclParameters parameters = new MclParameters();
+    private final MarkovClustering cugar = new MarkovClustering();
+
+    private SparseMatrix cugarGraph;
+    private SparseMatrix cugarStochastic;
+    private SparseMatrix cugarExpanded;
+    // copies for the benchmarks which modify their matrix
+    private SparseMatrix cugarGraphCopy;
+    private SparseMatrix cugarExpandedCopy;
+
+    private WeightGraph graph;
+    private CsrMatrix nativeGraph;
+    private CsrMarkovClustering.State nativeStochastic;
+    private CsrMarkovClustering nativeEngine;
+    private ExecutorService pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] edges = BenchmarkData.clusteredGraph(nodes, 7);
+        WeightGraphFile file = new WeightGraphFile(nodes, edges);
+
+        SparseMatrixLabeled labeled = new SparseMatrixLabeled();
+        for (int edge = 0; edge < file.edgeCount(); edge++) {
+            String label1 = String.valueOf(file.first(edge));
+            String label2 = String.valueOf(file.second(edge));
+            labeled.add(label1, label2, file.weight(edge));
+            labeled.add(label2, label1, file.weight(edge));
+        }
+        cugarGraph = labeled.getMatrix().transpose();
+        cugarStochastic = new SparseMatrix(cugarGraph);
+        cugarStochastic.normaliseRows();
+        cugarExpanded = cugar.expand(cugarStochastic);
+
+        graph = WeightGraph.fromFile(file);
+        nativeGraph = graph.matrix.transpose();
+        nativeEngine = new CsrMarkovClustering(threads);
+        nativeStochastic = nativeEngine.start(nativeGraph, parameters.getLoopGain());
+        pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    }
+
+    @Setup(Level.Invocation)
+    public void copyMatrices() {
+        cugarGraphCopy = new SparseMatrix(cugarGraph);
+        cugarExpandedCopy = new SparseMatrix(cugarExpanded);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public SparseMatrix cugarExpand() {
+        return cugar.expand(cugarStochastic);
+    }
+
+    @Benchmark
+    public double cugarInflate() {
+        return cugar.inflate(cugarExpandedCopy, parameters);
+    }
+
+    @Benchmark
+    public SparseMatrix cugarRun() {
+        return cugar.run(cugarGraphCopy, parameters);
+    }
+
+    @Benchmark
+    public CsrMarkovClustering.State nativeExpandAndInflate() {
+        return nativeEngine.expandAndInflate(nativeStochastic, parameters, pool);
+    }
+
+    @Benchmark
+    public List<TreeSet<String>> nativeRun() {
+        return CsrMarkovClustering.clusters(nativeEngine.run(nativeGraph, parameters), graph.labels);
+    }
+}
@@ -0,0 +1,175 @@
+package org.example.clustering;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Routing dataset lines to partitions: {@link PartitionGenerator#getPredicate}
+ * on single triples, the former String splitting of the lines as a baseline,
+ * the {@link NTriplesTokenizer} with the byte lookup of the routing table and
+ * the whole {@link PartitionGenerator.RoutingLineHandler} on one chunk, writing
+ * plain and block gzip partitions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PartitionRoutingBenchmark {
+
+    @Param({"100000"})
+    public int triples;
+
+    @Param({"500"})
+    public int predicates;
+
+    @Param({"10"})
+    public int partitions;
+
+    private String[] lines;
+    private byte[] chunk;
+    private PartitionRouting routing;
+    private Path outputFolder;
+    private ExecutorService compressionPool;
+    private final List<PartitionOutput> plainOutputs = new ArrayList<>();
+    private final List<PartitionOutput> compressedOutputs = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        lines = BenchmarkData.triples(triples, predicates, 3);
+        chunk = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        PredicateDictionary dictionary = new PredicateDictionary();
+        for (int id = 0; id < predicates; id++) {
+            dictionary.getOrAdd(BenchmarkData.predicate(id));
+        }
+        routing = new PartitionRouting(dictionary, partitions - 1);
+        // every third predicate stays unassigned and goes to the fallback partition
+        for (int id = 0; id < predicates; id++) {
+            if (id % 3 != 0) {
+                routing.assign(id, id % partitions);
+            }
+        }
+
+        outputFolder = Files.createTempDirectory("routing-benchmark");
+        compressionPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @Setup(Level.Invocation)
+    public void openPartitions() throws IOException {
+        // opening an output truncates the partition file
+        for (int i = 0; i < partitions; i++) {
+            plainOutputs.add(PartitionOutput.plain(outputFolder.resolve("Partition" + i)));
+            compressedOutputs.add(PartitionOutput.blockGzip(outputFolder.resolve("Partition" + i + ".gz"), compressionPool,
+                    Deflater.DEFAULT_COMPRESSION, 8));
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void closePartitions() throws IOException {
+        for (PartitionOutput output : plainOutputs) {
+            output.close();
+        }
+        for (PartitionOutput output : compressedOutputs) {
+            output.close();
+        }
+        plainOutputs.clear();
+        compressedOutputs.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        compressionPool.shutdown();
+        for (int i = 0; i < partitions; i++) {
+            Files.deleteIfExists(outputFolder.resolve("Partition" + i));
+            Files.deleteIfExists(outputFolder.resolve("Partition" + i + ".gz"));
+        }
+        Files.deleteIfExists(outputFolder);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String getPredicate() {
+        return PartitionGenerator.getPredicate(lines[0]);
+    }
+
+    @Benchmark
+    public long stringSplitRouting() throws IOException {
+        List<BufferedWriter> partitionWriters = new ArrayList<>();
+        for (int i = 0; i < partitions; i++) {
+            partitionWriters.add(new BufferedWriter(Writer.nullWriter()));
+        }
+        long lineCounter = 0;
+        for (String line : lines) {
+            String[] triple = line.trim().split(" ");
+            int targetChunk = routing.partitionOf(triple[1].trim());
+            partitionWriters.get(targetChunk).write(line.trim());
+            partitionWriters.get(targetChunk).newLine();
+            lineCounter++;
+        }
+        return lineCounter;
+    }
+
+    @Benchmark
+    public long tokenizerRouting() throws IOException {
+        NTriplesTokenizer tokenizer = new NTriplesTokenizer();
+        long partitionSum = 0;
+        int lineStart = 0;
+        for (int i = 0; i < chunk.length; i++) {
+            if (chunk[i] == '\n') {
+                if (tokenizer.predicate(chunk, lineStart, i)) {
+                    partitionSum += routing.partitionOf(chunk, tokenizer.predicateStart, tokenizer.predicateEnd);
+                }
+                lineStart = i + 1;
+            }
+        }
+        return partitionSum;
+    }
+
+    @Benchmark
+    public long chunkRouting() throws IOException {
+        return route(plainOutputs);
+    }
+
+    /**
+     * includes waiting for the compression of the last blocks when the outputs are closed.
+     */
+    @Benchmark
+    public long compressedChunkRouting() throws IOException {
+        long lineCounter = route(compressedOutputs);
+        closePartitions();
+        return lineCounter;
+    }
+
+    private long route(List<PartitionOutput> outputs) throws IOException {
+        PartitionGenerator.RoutingLineHandler handler = new PartitionGenerator.RoutingLineHandler(outputs, routing);
+        long lineCounter = ParallelDatasetScanner.splitLines(chunk, chunk.length, handler);
+        handler.endOfChunk();
+        return lineCounter;
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.clustering;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the predicates of one query: parsing, {@link PatternsFinder} on the
+ * string form of the query pattern and both {@link PredicateExtractor}s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PatternsFinderBenchmark {
+
+    @Param({"STAR", "PATH", "OPTIONAL", "UNION", "PREFIXED_FILTER"})
+    public String shape;
+
+    @Param({"3", "8"})
+    public int patterns;
+
+    private String queryText;
+    private Query query;
+    private PredicateExtractor stringExtractor;
+    private PredicateExtractor syntaxTreeExtractor;
+
+    @Setup
+    public void setUp() {
+        queryText = BenchmarkData.QueryShape.valueOf(shape).query(0, patterns);
+        query = QueryFactory.create(queryText);
+        stringExtractor = PredicateExtractor.Type.STRING_PATTERNS.create(new PredicateDictionary());
+        syntaxTreeExtractor = PredicateExtractor.Type.SYNTAX_TREE.create(new PredicateDictionary());
+    }
+
+    @Benchmark
+    public Query parse() {
+        return QueryFactory.create(queryText);
+    }
+
+    @Benchmark
+    public Set<String> getTriplePatterns() {
+        return PatternsFinder.getTriplePatterns(query);
+    }
+
+    @Benchmark
+    public Set<String> parseAndGetTriplePatterns() {
+        return PatternsFinder.getTriplePatterns(queryText);
+    }
+
+    @Benchmark
+    public int[] stringPatternsExtractor() {
+        return stringExtractor.predicateIds(query);
+    }
+
+    @Benchmark
+    public int[] syntaxTreeExtractor() {
+        return syntaxTreeExtractor.predicateIds(query);
+    }
+}
@@ -0,0 +1,222 @@
+package org.example.clustering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * BlockGzip writes and reads gzip files made of independent blocks, in the
+ * BGZF layout known from bgzip/htslib. Every block is a complete gzip member
+ * of at most 64 KiB whose header carries the size of the block in a "BC"
+ * extra field, so any gzip reader can decompress the file as a whole and
+ * {@link BlockReader} can find the blocks without inflating them and inflate
+ * them in parallel. A file ends with an empty block.
+ */
+final class BlockGzip {
+
+    // uncompressed bytes per block, small enough that even stored data fits into a block
+    static final int MAX_INPUT_SIZE = 0xff00;
+    static final int MAX_BLOCK_SIZE = 0x10000;
+
+    private static final int HEADER_SIZE = 18;
+    private static final int FOOTER_SIZE = 8;
+    private static final byte[] HEADER = {
+            0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0, 0
+    };
+
+    static final byte[] EOF_BLOCK = {
+            0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0,
+            3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private BlockGzip() {
+    }
+
+    /**
+     * @return data[offset, offset + length) as a sequence of blocks
+     */
+    static byte[] compress(byte[] data, int offset, int length, int level) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.setLevel(level);
+        CRC32 crc = new CRC32();
+        int blocks = (length + MAX_INPUT_SIZE - 1) / MAX_INPUT_SIZE;
+        ByteBuffer out = ByteBuffer.allocate(Math.max(1, blocks) * MAX_BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        int end = offset + length;
+        int position = offset;
+        while (position < end) {
+            int inputSize = Math.min(MAX_INPUT_SIZE, end - position);
+            int blockStart = out.position();
+            int deflated;
+            while (true) {
+                deflater.reset();
+                deflater.setInput(data, position, inputSize);
+                deflater.finish();
+                int dataStart = blockStart + HEADER_SIZE;
+                deflated = deflater.deflate(out.array(), dataStart, MAX_BLOCK_SIZE - HEADER_SIZE - FOOTER_SIZE);
+                if (deflater.finished()) {
+                    break;
+                }
+                // data that does not compress needs a smaller block
+                inputSize -= 1024;
+            }
+            out.put(HEADER);
+            out.position(out.position() + deflated);
+            crc.reset();
+            crc.update(data, position, inputSize);
+            out.putInt((int) crc.getValue());
+            out.putInt(inputSize);
+            out.putShort(blockStart + 16, (short) (out.position() - blockStart - 1));
+            position += inputSize;
+        }
+        byte[] compressed = new byte[out.position()];
+        System.arraycopy(out.array(), 0, compressed, 0, compressed.length);
+        return compressed;
+    }
+
+    /**
+     * @return whether the file starts with a block of this format
+     */
+    static boolean isBlockGzip(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // keep reading until the header is complete
+        }
+        return !header.hasRemaining() && isBlockHeader(header.array(), 0);
+    }
+
+    private static boolean isBlockHeader(byte[] buffer, int offset) {
+        return buffer[offset] == 0x1f && buffer[offset + 1] == (byte) 0x8b && buffer[offset + 2] == 8
+                && (buffer[offset + 3] & 4) != 0 && buffer[offset + 10] == 6 && buffer[offset + 11] == 0
+                && buffer[offset + 12] == 'B' && buffer[offset + 13] == 'C' && buffer[offset + 14] == 2
+                && buffer[offset + 15] == 0;
+    }
+
+    private static int blockSize(byte[] buffer, int offset) {
+        return ((buffer[offset + 16] & 0xff) | (buffer[offset + 17] & 0xff) << 8) + 1;
+    }
+
+    private static int intAt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) | (buffer[offset + 1] & 0xff) << 8
+                | (buffer[offset + 2] & 0xff) << 16 | (buffer[offset + 3] & 0xff) << 24;
+    }
+
+    /**
+     * @return the uncompressed data of the complete blocks in compressed[0, length)
+     */
+    static byte[] inflate(byte[] compressed, int length) throws IOException {
+        int size = 0;
+        for (int block = 0; block < length; block += blockSize(compressed, block)) {
+            size += intAt(compressed, block + blockSize(compressed, block) - 4);
+        }
+        byte[] data = new byte[size];
+        Inflater inflater = INFLATERS.get();
+        CRC32 crc = new CRC32();
+        int position = 0;
+        for (int block = 0; block < length; block += blockSize(compressed, block)) {
+            int blockSize = blockSize(compressed, block);
+            int inputSize = intAt(compressed, block + blockSize - 4);
+            inflater.reset();
+            inflater.setInput(compressed, block + HEADER_SIZE, blockSize - HEADER_SIZE - FOOTER_SIZE);
+            try {
+                if (inputSize > 0 && inflater.inflate(data, position, inputSize) != inputSize || !inflater.finished() && inputSize > 0) {
+                    throw new IOException("Corrupt gzip block");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt gzip block", e);
+            }
+            crc.reset();
+            crc.update(data, position, inputSize);
+            if ((int) crc.getValue() != intAt(compressed, block + blockSize - 8)) {
+                throw new IOException("CRC mismatch in gzip block");
+            }
+            position += inputSize;
+        }
+        return data;
+    }
+
+    /**
+     * reads the uncompressed data of a file in order, groups of blocks are
+     * inflated on a pool while the next groups are read.
+     */
+    static class BlockReader {
+
+        private final FileChannel channel;
+        private final ExecutorService pool;
+        private final int groupSize;
+        private final int maxPending;
+        private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        private long position;
+
+        /**
+         * @param groupSize compressed bytes inflated by one task
+         * @param maxPending number of groups read ahead
+         */
+        BlockReader(FileChannel channel, ExecutorService pool, int groupSize, int maxPending) {
+            this.channel = channel;
+            this.pool = pool;
+            this.groupSize = Math.max(groupSize, MAX_BLOCK_SIZE);
+            this.maxPending = maxPending;
+        }
+
+        /**
+         * @return the next group of uncompressed data, or null at the end of the file
+         */
+        byte[] next() throws IOException {
+            while (pending.size() < maxPending && position < channel.size()) {
+                readGroup();
+            }
+            Future<byte[]> group = pending.poll();
+            if (group == null) {
+                return null;
+            }
+            try {
+                return group.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while inflating", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        private void readGroup() throws IOException {
+            int length = (int) Math.min(groupSize, channel.size() - position);
+            byte[] compressed = new byte[length];
+            ByteBuffer target = ByteBuffer.wrap(compressed);
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position()) < 0) {
+                    throw new IOException("Unexpected end of file at offset " + (position + target.position()));
+                }
+            }
+            int complete = 0;
+            while (complete + HEADER_SIZE <= length && complete + blockSize(compressed, complete) <= length) {
+                if (!isBlockHeader(compressed, complete)) {
+                    throw new IOException("No gzip block at offset " + (position + complete));
+                }
+                complete += blockSize(compressed, complete);
+            }
+            if (complete == 0) {
+                throw new IOException("Truncated gzip block at offset " + position);
+            }
+            position += complete;
+            int groupLength = complete;
+            pending.add(pool.submit(() -> inflate(compressed, groupLength)));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.example.clustering;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * BytesIntHashMap is an open-addressing hash map from byte sequences to int
+ * values. Keys are copied into one byte array when they are added, looking a
+ * key up in a larger buffer such as a line of the dataset does not allocate.
+ * Instances are not thread-safe for writes, lookups may run concurrently once
+ * the map is filled.
+ */
+class BytesIntHashMap {
+
+    static final int NOT_FOUND = -1;
+
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // entry + 1 of every slot, 0 marks an empty slot
+    private int[] slots;
+    private int mask;
+
+    private int[] hashes;
+    private int[] keyStarts;
+    private int[] values;
+    private byte[] keyBytes;
+    private int keyBytesLength;
+    private int size;
+
+    BytesIntHashMap() {
+        this(64);
+    }
+
+    BytesIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        slots = new int[capacity];
+        mask = capacity - 1;
+        hashes = new int[Math.max(16, expectedSize)];
+        keyStarts = new int[hashes.length + 1];
+        values = new int[hashes.length];
+        keyBytes = new byte[hashes.length * 32];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return value of the key bytes[from, to) or {@link #NOT_FOUND}
+     */
+    int get(byte[] bytes, int from, int to) {
+        int entry = slots[slotOf(bytes, from, to, hash(bytes, from, to))] - 1;
+        return entry < 0 ? NOT_FOUND : values[entry];
+    }
+
+    /**
+     * @return value of the key bytes[from, to), the key is added with the given value if it is missing
+     */
+    int putIfAbsent(byte[] bytes, int from, int to, int value) {
+        int hash = hash(bytes, from, to);
+        int slot = slotOf(bytes, from, to, hash);
+        if (slots[slot] != 0) {
+            return values[slots[slot] - 1];
+        }
+        addEntry(bytes, from, to, hash, value);
+        slots[slot] = size;
+        if (size > slots.length * LOAD_FACTOR) {
+            rehash(slots.length << 1);
+        }
+        return value;
+    }
+
+    /**
+     * @return slot of the key or the empty slot where it belongs
+     */
+    private int slotOf(byte[] bytes, int from, int to, int hash) {
+        int slot = hash & mask;
+        int entry;
+        while ((entry = slots[slot] - 1) >= 0) {
+            if (hashes[entry] == hash && keyEquals(entry, bytes, from, to)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void addEntry(byte[] bytes, int from, int to, int hash, int value) {
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            keyStarts = Arrays.copyOf(keyStarts, size * 2 + 1);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        int length = to - from;
+        if (keyBytesLength + length > keyBytes.length) {
+            keyBytes = Arrays.copyOf(keyBytes, Math.max(keyBytes.length * 2, keyBytesLength + length));
+        }
+        System.arraycopy(bytes, from, keyBytes, keyBytesLength, length);
+        keyStarts[size] = keyBytesLength;
+        keyBytesLength += length;
+        keyStarts[size + 1] = keyBytesLength;
+        hashes[size] = hash;
+        values[size] = value;
+        size++;
+    }
+
+    private boolean keyEquals(int entry, byte[] bytes, int from, int to) {
+        return Arrays.equals(keyBytes, keyStarts[entry], keyStarts[entry + 1], bytes, from, to);
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = hashes[entry] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+
+    /**
+     * hash of bytes[from, to), eight bytes are mixed in at a time.
+     */
+    static int hash(byte[] bytes, int from, int to) {
+        long hash = 0x9E3779B97F4A7C15L ^ (to - from);
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            hash = (hash ^ (long) LONGS.get(bytes, i)) * 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 32;
+        }
+        for (; i < to; i++) {
+            hash = (hash ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 29;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,116 @@
+package org.example.clustering;
+
+import java.util.Arrays;
+
+/**
+ * CooccurrenceCounter counts in how many queries two predicates occur
+ * together. A pair of predicate ids is packed into one long with the smaller
+ * id in the upper half, so (a, b) and (b, a) share one counter and no key
+ * object is created per pair.
+ * <p>
+ * Partial counters filled by different threads are combined with
+ * {@link #merge(CooccurrenceCounter)}.
+ */
+public class CooccurrenceCounter {
+
+    private final LongIntHashMap pairCounts;
+
+    public CooccurrenceCounter() {
+        this(1024);
+    }
+
+    CooccurrenceCounter(int expectedPairs) {
+        pairCounts = new LongIntHashMap(expectedPairs);
+    }
+
+    static long pairKey(int predicate1, int predicate2) {
+        int low = Math.min(predicate1, predicate2);
+        int high = Math.max(predicate1, predicate2);
+        return ((long) low << 32) | (high & 0xffffffffL);
+    }
+
+    static int first(long pairKey) {
+        return (int) (pairKey >>> 32);
+    }
+
+    static int second(long pairKey) {
+        return (int) pairKey;
+    }
+
+    /**
+     * count every pair of different predicates of one query once.
+     *
+     * @param predicateIds distinct predicate ids of the query
+     */
+    public void countQuery(int[] predicateIds) {
+        for (int i = 0; i < predicateIds.length - 1; i++) {
+            for (int j = i + 1; j < predicateIds.length; j++) {
+                if (predicateIds[i] != predicateIds[j]) {
+                    pairCounts.addTo(pairKey(predicateIds[i], predicateIds[j]), 1);
+                }
+            }
+        }
+    }
+
+    public void add(int predicate1, int predicate2, int count) {
+        pairCounts.addTo(pairKey(predicate1, predicate2), count);
+    }
+
+    public int count(int predicate1, int predicate2) {
+        return pairCounts.get(pairKey(predicate1, predicate2));
+    }
+
+    public void merge(CooccurrenceCounter other) {
+        pairCounts.addAll(other.pairCounts);
+    }
+
+    /**
+     * @param newIds new id for every predicate id
+     * @return a counter with the same counts for the renamed predicates
+     */
+    CooccurrenceCounter remap(int[] newIds) {
+        CooccurrenceCounter remapped = new CooccurrenceCounter(size());
+        pairCounts.forEach((pair, count) -> remapped.add(newIds[first(pair)], newIds[second(pair)], count));
+        return remapped;
+    }
+
+    /**
+     * @return number of predicate pairs, i.e. edges of the weighted graph
+     */
+    public int size() {
+        return pairCounts.size();
+    }
+
+    /**
+     * @return all pair keys sorted by first and then second predicate id
+     */
+    long[] sortedPairs() {
+        return pairCounts.sortedKeys();
+    }
+
+    int count(long pairKey) {
+        return pairCounts.get(pairKey);
+    }
+
+    void forEach(LongIntHashMap.Visitor visitor) {
+        pairCounts.forEach(visitor);
+    }
+
+    /**
+     * @return the distinct ids of the array in the order of their first occurrence, the array may be reordered
+     */
+    static int[] distinct(int[] predicateIds, int length) {
+        int unique = 0;
+        for (int i = 0; i < length; i++) {
+            int id = predicateIds[i];
+            int j = 0;
+            while (j < unique && predicateIds[j] != id) {
+                j++;
+            }
+            if (j == unique) {
+                predicateIds[unique++] = id;
+            }
+        }
+        return unique == predicateIds.length ? predicateIds : Arrays.copyOf(predicateIds, unique);
+    }
+}
@@ -0,0 +1,165 @@
+package org.example.clustering;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CooccurrenceState is everything needed to continue counting predicate
+ * co-occurrences where the last run stopped: the predicate dictionary, the
+ * pair counts, the fingerprints of the queries counted so far and, for every
+ * query log read, the byte position up to which it was read.
+ * <p>
+ * Because queries are counted only once by their fingerprint, updating the
+ * state with the tail of a log gives the same counts as counting the whole,
+ * concatenated workload from scratch, once the last record of the log ends
+ * with a line break. A record without one is left for a later update.
+ */
+class CooccurrenceState {
+
+    private static final int MAGIC = 0x50434d53; // "PCMS"
+    private static final int VERSION = 1;
+
+    /**
+     * how far a query log was read.
+     */
+    static class LogMark {
+        // position after the last record read
+        long position;
+        // hash of the head of the log, to notice that a log was replaced
+        long headHash;
+
+        LogMark(long position, long headHash) {
+            this.position = position;
+            this.headHash = headHash;
+        }
+    }
+
+    final PredicateExtractor.Type extractorType;
+    PredicateDictionary dictionary = new PredicateDictionary();
+    CooccurrenceCounter counter = new CooccurrenceCounter();
+    final LongIntHashMap seenQueries;
+    final Map<String, LogMark> logs = new LinkedHashMap<>();
+    long validQueries;
+    long queriesWithPatterns;
+
+    CooccurrenceState(PredicateExtractor.Type extractorType) {
+        this(extractorType, new LongIntHashMap());
+    }
+
+    private CooccurrenceState(PredicateExtractor.Type extractorType, LongIntHashMap seenQueries) {
+        this.extractorType = extractorType;
+        this.seenQueries = seenQueries;
+    }
+
+    /**
+     * renumber the predicates in lexicographic order, independent of the order the workers met them.
+     * A full run numbers them like the original weight generator instead, see {@link WeightGraphOrder}.
+     */
+    void canonicalise() {
+        PredicateDictionary sortedDictionary = dictionary.sortedCopy();
+        counter = counter.remap(dictionary.idMapping(sortedDictionary));
+        dictionary = sortedDictionary;
+    }
+
+    /**
+     * @return the state stored in the file, or an empty state if there is no such file
+     */
+    static CooccurrenceState loadOrCreate(String stateFile, PredicateExtractor.Type extractorType) throws IOException {
+        if (!Files.exists(Path.of(stateFile))) {
+            return new CooccurrenceState(extractorType);
+        }
+        CooccurrenceState state = load(stateFile);
+        if (state.extractorType != extractorType) {
+            throw new IOException(stateFile + " was counted with the " + state.extractorType
+                    + " predicate extractor, not with " + extractorType);
+        }
+        return state;
+    }
+
+    /**
+     * binary layout: magic, version, extractor, query counters, the log marks,
+     * the dictionary like {@link PredicateDictionary#writeTo}, then the pair
+     * counts and the query fingerprints as (long key, int count) entries.
+     * The file is replaced at once, so an interrupted save keeps the old state.
+     */
+    void save(String stateFile) throws IOException {
+        Path target = Path.of(stateFile);
+        Path temporary = Path.of(stateFile + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(extractorType.name());
+            out.writeLong(validQueries);
+            out.writeLong(queriesWithPatterns);
+            out.writeInt(logs.size());
+            for (Map.Entry<String, LogMark> log : logs.entrySet()) {
+                out.writeUTF(log.getKey());
+                out.writeLong(log.getValue().position);
+                out.writeLong(log.getValue().headHash);
+            }
+            dictionary.writeTo(out);
+            out.writeInt(counter.size());
+            counter.forEach((pair, count) -> writeEntry(out, pair, count));
+            out.writeInt(seenQueries.size());
+            seenQueries.forEach((fingerprint, count) -> writeEntry(out, fingerprint, count));
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeEntry(DataOutputStream out, long key, int value) {
+        try {
+            out.writeLong(key);
+            out.writeInt(value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static CooccurrenceState load(String stateFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Path.of(stateFile)), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(stateFile + " is not a co-occurrence state");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported co-occurrence state version " + version + " in " + stateFile);
+            }
+            PredicateExtractor.Type extractorType = PredicateExtractor.Type.valueOf(in.readUTF());
+            long validQueries = in.readLong();
+            long queriesWithPatterns = in.readLong();
+            Map<String, LogMark> logs = new LinkedHashMap<>();
+            int logCount = in.readInt();
+            for (int i = 0; i < logCount; i++) {
+                logs.put(in.readUTF(), new LogMark(in.readLong(), in.readLong()));
+            }
+            PredicateDictionary dictionary = PredicateDictionary.readFrom(in);
+            int pairs = in.readInt();
+            CooccurrenceCounter counter = new CooccurrenceCounter(pairs);
+            for (int i = 0; i < pairs; i++) {
+                long pair = in.readLong();
+                counter.add(CooccurrenceCounter.first(pair), CooccurrenceCounter.second(pair), in.readInt());
+            }
+            int queries = in.readInt();
+            LongIntHashMap seenQueries = new LongIntHashMap(queries);
+            for (int i = 0; i < queries; i++) {
+                seenQueries.put(in.readLong(), in.readInt());
+            }
+
+            CooccurrenceState state = new CooccurrenceState(extractorType, seenQueries);
+            state.dictionary = dictionary;
+            state.counter = counter;
+            state.logs.putAll(logs);
+            state.validQueries = validQueries;
+            state.queriesWithPatterns = queriesWithPatterns;
+            return state;
+        }
+    }
+}
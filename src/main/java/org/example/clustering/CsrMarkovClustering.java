@@ -0,0 +1,537 @@
+package org.example.clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * CsrMarkovClustering runs the same MCL process as {@link MarkovClustering}
+ * on a {@link CsrMatrix} instead of Cugar's HashMap based sparse matrices.
+ * Like there, the matrix is kept row-stochastic and all operations work on
+ * rows.
+ * <p>
+ * Every iteration is a single parallel pass over blocks of rows. Each row of
+ * m * m is accumulated in a dense per-thread array (Gustavson's algorithm),
+ * and while the row is still in that array it is inflated: raised to the
+ * power p, pruned, normalised and checked for its residual. The next matrix
+ * is assembled from the finished blocks, no intermediate matrix is built for
+ * the expansion.
+ * <p>
+ * To return exactly the clusters of the Cugar engine, sums are taken in the
+ * order Cugar's rows (HashMaps with Integer keys) iterate their entries, and
+ * rows of m * m without any entry behave like in Cugar's SparseMatrix: they
+ * share their vector with the next non-empty row, trailing ones are dropped.
+ */
+class CsrMarkovClustering {
+
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    private final int threads;
+    // node numbers the HashMap order is computed from, null for the row and column numbers
+    private final int[] hashKeys;
+    private final ThreadLocal<RowAccumulator> accumulators = new ThreadLocal<>();
+
+    CsrMarkovClustering(int threads) {
+        this(threads, null);
+    }
+
+    /**
+     * @param hashKeys ascending node number of every row and column in a larger graph, the entries
+     *        of a row are summed in the order Cugar's rows iterate them in that graph
+     */
+    CsrMarkovClustering(int threads, int[] hashKeys) {
+        this.threads = Math.max(1, threads);
+        this.hashKeys = hashKeys;
+    }
+
+    /**
+     * matrix after an iteration. Only the first rows rows and columns take
+     * part in the next iteration, capacity is the hash table size of every
+     * row in Cugar's representation.
+     */
+    static class State {
+        final CsrMatrix matrix;
+        final int rows;
+        final int[] capacity;
+        final double residual;
+
+        State(CsrMatrix matrix, int rows, int[] capacity, double residual) {
+            this.matrix = matrix;
+            this.rows = rows;
+            this.capacity = capacity;
+            this.residual = residual;
+        }
+
+        /**
+         * @return fingerprint for {@link MclConvergence}
+         */
+        long fingerprint() {
+            long fingerprint = 0;
+            for (int row = 0; row < rows; row++) {
+                for (int i = matrix.rowStart[row]; i < matrix.rowStart[row + 1]; i++) {
+                    fingerprint += MclConvergence.entryHash(row, matrix.columns[i], matrix.values[i]);
+                }
+            }
+            return fingerprint;
+        }
+    }
+
+    /**
+     * run the MCL process.
+     *
+     * @param a matrix
+     * @param parameters settings of the process
+     * @return the resulting matrix, a is not modified
+     */
+    State run(CsrMatrix a, MclParameters parameters) {
+        return run(a, parameters, new MclConvergence(parameters));
+    }
+
+    /**
+     * run the MCL process until the convergence is done, it holds the iterations afterwards.
+     */
+    State run(CsrMatrix a, MclParameters parameters, MclConvergence convergence) {
+        State state = start(a, parameters.getLoopGain());
+
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            do {
+                state = expandAndInflate(state, parameters, pool);
+            } while (!convergence.isDone(state.residual, state.fingerprint(), state.matrix.nonZeros()));
+            convergence.printIfNotConverged();
+            return state;
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * add cycles and make the matrix stochastic.
+     */
+    State start(CsrMatrix a, double loopGain) {
+        a = addLoops(a, loopGain);
+        int[] capacity = new int[a.size];
+        double[] values = a.values.clone();
+        RowAccumulator accumulator = accumulator(a.size);
+        for (int row = 0; row < a.size; row++) {
+            int from = a.rowStart[row];
+            capacity[row] = hashCapacity(a.rowStart[row + 1] - from);
+            int length = accumulator.hashOrder(a.columns, from, a.rowStart[row + 1], capacity[row]);
+            double sum = 0.;
+            for (int i = 0; i < length; i++) {
+                sum += values[from + (int) accumulator.order[i]];
+            }
+            double factor = 1. / sum;
+            for (int i = from; i < a.rowStart[row + 1]; i++) {
+                values[i] *= factor;
+            }
+        }
+        return new State(new CsrMatrix(a.size, a.rowStart, a.columns, values), a.size, capacity, 1.);
+    }
+
+    /**
+     * one MCL iteration: Gamma(m * m) with pruning, see {@link MarkovClustering#inflate}.
+     */
+    State expandAndInflate(State state, MclParameters parameters, ExecutorService pool) {
+        CsrMatrix m = state.matrix;
+        int[] productSize = new int[m.size];
+        double[] rowResidual = new double[m.size];
+        List<RowBlock> blocks = new ArrayList<>();
+        if (pool == null) {
+            blocks.add(computeBlock(state, 0, m.size, parameters, productSize, rowResidual));
+        } else {
+            int blockCount = Math.max(1, Math.min(m.size, threads * BLOCKS_PER_THREAD));
+            int blockSize = Math.max(1, (m.size + blockCount - 1) / blockCount);
+            List<Future<RowBlock>> futures = new ArrayList<>();
+            for (int from = 0; from < m.size; from += blockSize) {
+                int start = from;
+                int end = Math.min(m.size, from + blockSize);
+                futures.add(pool.submit(() -> computeBlock(state, start, end, parameters, productSize, rowResidual)));
+            }
+            try {
+                for (Future<RowBlock> future : futures) {
+                    blocks.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        CsrMatrix next = concat(m.size, blocks);
+
+        // Cugar only creates a row of m * m when it gets its first entry, all
+        // rows created at once share one vector and trailing empty rows are missing
+        int rows = 0;
+        boolean shared = false;
+        for (int row = 0; row < m.size; row++) {
+            if (productSize[row] > 0) {
+                shared |= row > rows;
+                rows = row + 1;
+            }
+        }
+        int[] capacity = new int[m.size];
+        for (int row = 0; row < rows; row++) {
+            capacity[row] = hashCapacity(productSize[row]);
+        }
+        if (shared) {
+            next = shareRows(state, next, rows, parameters, productSize, rowResidual, capacity);
+        }
+
+        double residual = 0.;
+        for (int row = 0; row < rows; row++) {
+            residual = Math.max(residual, rowResidual[row]);
+        }
+        return new State(next, rows, capacity, residual);
+    }
+
+    private RowBlock computeBlock(State state, int firstRow, int endRow, MclParameters parameters,
+                                  int[] productSize, double[] rowResidual) {
+        RowAccumulator accumulator = accumulator(state.matrix.size);
+        RowBlock block = new RowBlock(firstRow, endRow - firstRow);
+        for (int row = firstRow; row < endRow; row++) {
+            productSize[row] = accumulator.multiplyRow(state, row);
+            int kept = accumulator.inflate(productSize[row], parameters, 1);
+            rowResidual[row] = accumulator.residual;
+            block.append(row - firstRow, accumulator.touched, accumulator.dense, kept);
+        }
+        return block;
+    }
+
+    /**
+     * redo the inflation of every non-empty row of m * m that shares its
+     * vector with empty rows before it: Cugar raises the shared vector to the
+     * power p and normalises it once for each of these rows.
+     */
+    private CsrMatrix shareRows(State state, CsrMatrix next, int rows, MclParameters parameters,
+                                int[] productSize, double[] rowResidual, int[] capacity) {
+        RowAccumulator accumulator = accumulator(next.size);
+        RowBlock block = new RowBlock(0, next.size);
+        int firstShared = 0;
+        for (int row = 0; row < rows; row++) {
+            if (productSize[row] == 0) {
+                continue;
+            }
+            if (firstShared == row) {
+                int from = next.rowStart[row];
+                block.append(row, next.columns, from, next.values, from, next.rowStart[row + 1] - from);
+            } else {
+                accumulator.multiplyRow(state, row);
+                int kept = accumulator.inflate(productSize[row], parameters, row - firstShared + 1);
+                for (int shared = firstShared; shared <= row; shared++) {
+                    block.append(shared, accumulator.touched, accumulator.dense, kept);
+                    rowResidual[shared] = accumulator.residual;
+                    capacity[shared] = capacity[row];
+                }
+            }
+            firstShared = row + 1;
+        }
+        List<RowBlock> blocks = new ArrayList<>();
+        blocks.add(block);
+        return concat(next.size, blocks);
+    }
+
+    private static CsrMatrix concat(int size, List<RowBlock> blocks) {
+        int nonZeros = 0;
+        for (RowBlock block : blocks) {
+            nonZeros += block.length;
+        }
+        int[] rowStart = new int[size + 1];
+        int[] columns = new int[nonZeros];
+        double[] values = new double[nonZeros];
+        int offset = 0;
+        int row = 0;
+        for (RowBlock block : blocks) {
+            for (; row < block.firstRow; row++) {
+                rowStart[row + 1] = rowStart[row];
+            }
+            for (int i = 0; i < block.rowLengths.length; i++, row++) {
+                rowStart[row + 1] = rowStart[row] + block.rowLengths[i];
+            }
+            System.arraycopy(block.columns, 0, columns, offset, block.length);
+            System.arraycopy(block.values, 0, values, offset, block.length);
+            offset += block.length;
+        }
+        for (; row < size; row++) {
+            rowStart[row + 1] = rowStart[row];
+        }
+        return new CsrMatrix(size, rowStart, columns, values);
+    }
+
+    private RowAccumulator accumulator(int size) {
+        RowAccumulator accumulator = accumulators.get();
+        if (accumulator == null || accumulator.dense.length < size) {
+            accumulator = new RowAccumulator(size, hashKeys);
+            accumulators.set(accumulator);
+        }
+        return accumulator;
+    }
+
+    /**
+     * table size of a java.util.HashMap after count keys were put into it.
+     */
+    static int hashCapacity(int count) {
+        int capacity = 16;
+        while (count > capacity - (capacity >>> 2)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * dense accumulator for one row of m * m, private to one thread.
+     */
+    private static class RowAccumulator {
+
+        final double[] dense;
+        final int[] stamp;
+        final int[] touched;
+        final long[] order;
+        final double[] candidates;
+        final int[] hashKeys;
+        int currentStamp;
+        double residual;
+
+        RowAccumulator(int size, int[] hashKeys) {
+            this.hashKeys = hashKeys;
+            dense = new double[size];
+            stamp = new int[size];
+            touched = new int[size];
+            order = new long[size];
+            candidates = new double[size];
+        }
+
+        /**
+         * fill order with the positions (relative to from) of the ascending
+         * columns[from, to) in the iteration order of a HashMap with Integer
+         * keys and the given table size which got the keys in ascending order.
+         * With hash keys the HashMap has the hash key of every column as key.
+         *
+         * @return number of positions
+         */
+        int hashOrder(int[] columns, int from, int to, int capacity) {
+            int mask = capacity - 1;
+            boolean ascending = true;
+            for (int i = 0; i < to - from; i++) {
+                int column = columns[from + i];
+                int key = hashKeys == null ? column : hashKeys[column];
+                int bucket = (key ^ (key >>> 16)) & mask;
+                ascending &= bucket == key;
+                order[i] = ((long) bucket << 32) | i;
+            }
+            if (!ascending) {
+                Arrays.sort(order, 0, to - from);
+            }
+            return to - from;
+        }
+
+        /**
+         * @return number of columns of the row, they are listed in touched
+         */
+        int multiplyRow(State state, int row) {
+            CsrMatrix m = state.matrix;
+            if (row >= state.rows) {
+                return 0;
+            }
+            if (++currentStamp == Integer.MAX_VALUE) {
+                Arrays.fill(stamp, 0);
+                currentStamp = 1;
+            }
+            int from = m.rowStart[row];
+            int length = hashOrder(m.columns, from, m.rowStart[row + 1], state.capacity[row]);
+            int count = 0;
+            for (int t = 0; t < length; t++) {
+                int i = from + (int) order[t];
+                int k = m.columns[i];
+                double a = m.values[i];
+                for (int j = m.rowStart[k]; j < m.rowStart[k + 1]; j++) {
+                    int column = m.columns[j];
+                    if (column >= state.rows) {
+                        continue;
+                    }
+                    if (stamp[column] != currentStamp) {
+                        stamp[column] = currentStamp;
+                        dense[column] = a * m.values[j];
+                        touched[count++] = column;
+                    } else {
+                        dense[column] += a * m.values[j];
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * raise to the power p, prune and normalise the accumulated row and
+         * compute its residual.
+         *
+         * @param repeats number of rows sharing this row in Cugar
+         * @return number of columns left, listed in ascending order in touched
+         */
+        int inflate(int count, MclParameters parameters, int repeats) {
+            double p = parameters.getInflation();
+            double zeromax = parameters.getPruneThreshold();
+            int kept = 0;
+            if (parameters.hasColumnControls()) {
+                for (int i = 0; i < count; i++) {
+                    double value = dense[touched[i]];
+                    for (int r = 0; r < repeats; r++) {
+                        value = Math.pow(value, p);
+                    }
+                    candidates[i] = value;
+                }
+                kept = MclPruning.prune(touched, candidates, count, parameters);
+                for (int i = 0; i < kept; i++) {
+                    dense[touched[i]] = candidates[i];
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    int column = touched[i];
+                    double value = dense[column];
+                    for (int r = 0; r < repeats; r++) {
+                        value = Math.pow(value, p);
+                    }
+                    if (!(Math.abs(value) < zeromax)) {
+                        dense[column] = value;
+                        touched[kept++] = column;
+                    }
+                }
+            }
+            Arrays.sort(touched, 0, kept);
+            hashOrder(touched, 0, kept, hashCapacity(count));
+
+            for (int r = 0; r < repeats; r++) {
+                double sum = 0.;
+                for (int i = 0; i < kept; i++) {
+                    sum += dense[touched[(int) order[i]]];
+                }
+                double factor = 1. / sum;
+                for (int i = 0; i < kept; i++) {
+                    dense[touched[i]] *= factor;
+                }
+            }
+
+            double max = 0.;
+            double sumOfSquares = 0.;
+            for (int i = 0; i < kept; i++) {
+                double value = dense[touched[(int) order[i]]];
+                max = Math.max(max, value);
+                sumOfSquares += Math.pow(value, 2.);
+            }
+            residual = max - sumOfSquares;
+            return kept;
+        }
+    }
+
+    /**
+     * rows of the next matrix computed by one task.
+     */
+    private static class RowBlock {
+
+        final int firstRow;
+        final int[] rowLengths;
+        int[] columns = new int[1024];
+        double[] values = new double[1024];
+        int length;
+
+        RowBlock(int firstRow, int rows) {
+            this.firstRow = firstRow;
+            this.rowLengths = new int[rows];
+        }
+
+        void append(int row, int[] rowColumns, double[] dense, int count) {
+            ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                columns[length + i] = rowColumns[i];
+                values[length + i] = dense[rowColumns[i]];
+            }
+            length += count;
+            rowLengths[row] = count;
+        }
+
+        void append(int row, int[] rowColumns, int columnsFrom, double[] rowValues, int valuesFrom, int count) {
+            ensureCapacity(count);
+            System.arraycopy(rowColumns, columnsFrom, columns, length, count);
+            System.arraycopy(rowValues, valuesFrom, values, length, count);
+            length += count;
+            rowLengths[row] = count;
+        }
+
+        private void ensureCapacity(int count) {
+            if (length + count > columns.length) {
+                int capacity = Math.max(columns.length * 2, length + count);
+                columns = Arrays.copyOf(columns, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+        }
+    }
+
+    /**
+     * add loopGain to the diagonal elements.
+     */
+    static CsrMatrix addLoops(CsrMatrix a, double loopGain) {
+        if (loopGain <= 0) {
+            return a;
+        }
+        int[] rows = new int[a.nonZeros() + a.size];
+        int[] cols = new int[rows.length];
+        double[] vals = new double[rows.length];
+        int count = 0;
+        for (int row = 0; row < a.size; row++) {
+            for (int i = a.rowStart[row]; i < a.rowStart[row + 1]; i++) {
+                rows[count] = row;
+                cols[count] = a.columns[i];
+                vals[count++] = a.values[i];
+            }
+            rows[count] = row;
+            cols[count] = row;
+            vals[count++] = loopGain;
+        }
+        return CsrMatrix.fromEntries(a.size, rows, cols, vals, count);
+    }
+
+    /**
+     * read the clusters from the converged matrix the same way as
+     * {@code SparseMatrixLabeled.getCluster}: every node with a non-zero
+     * diagonal element that is not yet part of a cluster is an attractor, its
+     * cluster consists of all nodes with a non-zero element in its column.
+     */
+    static List<TreeSet<String>> clusters(State result, String[] labels) {
+        return clusters(result, labels, null);
+    }
+
+    /**
+     * @param attractors gets the attractor of every cluster, if not null
+     */
+    static List<TreeSet<String>> clusters(State result, String[] labels, List<Integer> attractors) {
+        CsrMatrix m = result.matrix;
+        CsrMatrix columns = m.transpose();
+        boolean[] taken = new boolean[m.size];
+        List<TreeSet<String>> clusters = new ArrayList<>();
+        for (int i = 0; i < result.rows; i++) {
+            if (!taken[i] && m.get(i, i) > 0) {
+                TreeSet<String> cluster = new TreeSet<>();
+                for (int j = columns.rowStart[i]; j < columns.rowStart[i + 1]; j++) {
+                    int row = columns.columns[j];
+                    if (row < result.rows && columns.values[j] != 0) {
+                        cluster.add(labels[row]);
+                        taken[row] = true;
+                    }
+                }
+                clusters.add(cluster);
+                if (attractors != null) {
+                    attractors.add(i);
+                }
+            }
+        }
+        return clusters;
+    }
+}
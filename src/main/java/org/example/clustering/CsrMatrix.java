@@ -0,0 +1,132 @@
+package org.example.clustering;
+
+import java.util.Arrays;
+
+/**
+ * CsrMatrix is a square sparse matrix in compressed sparse row format. The
+ * entries of row i are columns[rowStart[i] .. rowStart[i + 1]) with the
+ * matching values, sorted by column. Only primitive arrays are used.
+ */
+class CsrMatrix {
+
+    final int size;
+    final int[] rowStart;
+    final int[] columns;
+    final double[] values;
+
+    CsrMatrix(int size, int[] rowStart, int[] columns, double[] values) {
+        this.size = size;
+        this.rowStart = rowStart;
+        this.columns = columns;
+        this.values = values;
+    }
+
+    /**
+     * build a matrix from (row, column, value) triples, values of repeated
+     * positions are summed up in the order they are given.
+     */
+    static CsrMatrix fromEntries(int size, int[] rows, int[] cols, double[] vals, int count) {
+        int[] rowStart = new int[size + 1];
+        for (int i = 0; i < count; i++) {
+            rowStart[rows[i] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            rowStart[i + 1] += rowStart[i];
+        }
+        int[] columns = new int[count];
+        double[] values = new double[count];
+        int[] next = Arrays.copyOf(rowStart, size);
+        for (int i = 0; i < count; i++) {
+            int position = next[rows[i]]++;
+            columns[position] = cols[i];
+            values[position] = vals[i];
+        }
+
+        // sort every row by column and merge repeated columns
+        int[] compactStart = new int[size + 1];
+        int write = 0;
+        for (int row = 0; row < size; row++) {
+            int from = rowStart[row];
+            int to = rowStart[row + 1];
+            sortRow(columns, values, from, to);
+            compactStart[row] = write;
+            for (int i = from; i < to; i++) {
+                if (write > compactStart[row] && columns[write - 1] == columns[i]) {
+                    values[write - 1] += values[i];
+                } else {
+                    columns[write] = columns[i];
+                    values[write] = values[i];
+                    write++;
+                }
+            }
+        }
+        compactStart[size] = write;
+        return new CsrMatrix(size, compactStart, Arrays.copyOf(columns, write), Arrays.copyOf(values, write));
+    }
+
+    int nonZeros() {
+        return rowStart[size];
+    }
+
+    double get(int row, int column) {
+        int index = Arrays.binarySearch(columns, rowStart[row], rowStart[row + 1], column);
+        return index >= 0 ? values[index] : 0.;
+    }
+
+    CsrMatrix transpose() {
+        int[] start = new int[size + 1];
+        for (int i = 0; i < nonZeros(); i++) {
+            start[columns[i] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            start[i + 1] += start[i];
+        }
+        int[] next = Arrays.copyOf(start, size);
+        int[] transposedColumns = new int[nonZeros()];
+        double[] transposedValues = new double[nonZeros()];
+        // rows are visited in order, so the transposed rows are sorted as well
+        for (int row = 0; row < size; row++) {
+            for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+                int position = next[columns[i]]++;
+                transposedColumns[position] = row;
+                transposedValues[position] = values[i];
+            }
+        }
+        return new CsrMatrix(size, start, transposedColumns, transposedValues);
+    }
+
+    /**
+     * insertion sort for short rows, otherwise sort by an index permutation.
+     */
+    private static void sortRow(int[] columns, double[] values, int from, int to) {
+        if (to - from < 32) {
+            for (int i = from + 1; i < to; i++) {
+                int column = columns[i];
+                double value = values[i];
+                int j = i - 1;
+                while (j >= from && columns[j] > column) {
+                    columns[j + 1] = columns[j];
+                    values[j + 1] = values[j];
+                    j--;
+                }
+                columns[j + 1] = column;
+                values[j + 1] = value;
+            }
+            return;
+        }
+        long[] keyed = new long[to - from];
+        for (int i = from; i < to; i++) {
+            // column in the upper half keeps equal columns in their original order
+            keyed[i - from] = ((long) columns[i] << 32) | (i - from);
+        }
+        Arrays.sort(keyed);
+        int[] sortedColumns = new int[to - from];
+        double[] sortedValues = new double[to - from];
+        for (int i = 0; i < keyed.length; i++) {
+            sortedColumns[i] = (int) (keyed[i] >>> 32);
+            sortedValues[i] = values[from + (int) keyed[i]];
+        }
+        System.arraycopy(sortedColumns, 0, columns, from, sortedColumns.length);
+        System.arraycopy(sortedValues, 0, values, from, sortedValues.length);
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.clustering;
+
+/**
+ * DistributionParameters holds the settings of
+ * {@link PartitionGenerator#markovDistribution}. The defaults are the values
+ * the distribution always used: one scanner thread, uncompressed partitions,
+ * {@link PartitionGenerator.Assignment#PREDICATE_COUNT}, every line routed on
+ * its own and {@link PartitionGenerator.Fallback#LAST_PARTITION}.
+ * {@link #fromPathConstants()} takes the values configured in
+ * {@link PathConstants}.
+ * <p>
+ * All setters return this, so parameters can be chained:
+ * {@code new DistributionParameters().scanThreads(4).compressPartitions(true)}.
+ */
+final class DistributionParameters {
+
+    private int scanThreads = 1;
+    private boolean compressPartitions = false;
+    private PartitionGenerator.Assignment assignment = PartitionGenerator.Assignment.PREDICATE_COUNT;
+    private boolean useRangeIndex = false;
+    private PartitionGenerator.Fallback fallback = PartitionGenerator.Fallback.LAST_PARTITION;
+
+    /**
+     * @return the parameters configured in {@link PathConstants}
+     */
+    static DistributionParameters fromPathConstants() {
+        return new DistributionParameters()
+                .scanThreads(PathConstants.SCAN_THREADS)
+                .compressPartitions(PathConstants.COMPRESS_PARTITIONS)
+                .assignment(PathConstants.PARTITION_ASSIGNMENT)
+                .useRangeIndex(PathConstants.DISTRIBUTION == PartitionGenerator.Distribution.MARKOV_INDEXED)
+                .fallback(PathConstants.FALLBACK);
+    }
+
+    /**
+     * @param scanThreads number of threads routing the dataset, with more than one thread the
+     *        dataset is read in line-aligned chunks and the lines inside every partition file
+     *        are no longer in dataset order
+     */
+    DistributionParameters scanThreads(int scanThreads) {
+        this.scanThreads = scanThreads;
+        return this;
+    }
+
+    /**
+     * @param compressPartitions write the partitions as block gzip files Partition{i}.gz instead of Partition{i}
+     */
+    DistributionParameters compressPartitions(boolean compressPartitions) {
+        this.compressPartitions = compressPartitions;
+        return this;
+    }
+
+    /**
+     * @param assignment how the predicates are assigned to the partitions
+     */
+    DistributionParameters assignment(PartitionGenerator.Assignment assignment) {
+        this.assignment = assignment;
+        return this;
+    }
+
+    /**
+     * @param useRangeIndex copy the byte ranges of the predicates with the {@link PredicateRangeIndex}
+     *        of the dataset instead of routing every line, not possible for compressed datasets
+     *        or with {@link PartitionGenerator.Fallback#SUBJECT_HASH}
+     */
+    DistributionParameters useRangeIndex(boolean useRangeIndex) {
+        this.useRangeIndex = useRangeIndex;
+        return this;
+    }
+
+    /**
+     * @param fallback where the triples of the predicates in no cluster go
+     */
+    DistributionParameters fallback(PartitionGenerator.Fallback fallback) {
+        this.fallback = fallback;
+        return this;
+    }
+
+    int getScanThreads() {
+        return scanThreads;
+    }
+
+    boolean isCompressPartitions() {
+        return compressPartitions;
+    }
+
+    PartitionGenerator.Assignment getAssignment() {
+        return assignment;
+    }
+
+    boolean isUseRangeIndex() {
+        return useRangeIndex;
+    }
+
+    PartitionGenerator.Fallback getFallback() {
+        return fallback;
+    }
+}
@@ -0,0 +1,356 @@
+package org.example.clustering;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ExternalPredicateSort orders the lines of a dataset by predicate and then by
+ * subject within a fixed memory budget, so the triples of every predicate are
+ * contiguous in the sorted file.
+ * <p>
+ * Predicates of the {@link PredicateDictionary} come first in the order of
+ * their ids, the other predicates follow in the order of their bytes and lines
+ * which are no triple are last. Lines with equal predicate and subject are
+ * ordered by their bytes, so the result does not depend on the number of
+ * threads.
+ * <p>
+ * Every scanner thread collects lines until its share of the budget is used,
+ * sorts them and writes them as a run file. The runs are merged with a k-way
+ * merge, in several passes if there are more than {@link #MAX_FAN_IN} runs.
+ */
+final class ExternalPredicateSort {
+
+    static final int MAX_FAN_IN = 128;
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final int OUTPUT_BUFFER = 1 << 20;
+
+    // key of a line: start and length of the line, rank, start and length of predicate and subject
+    private static final int KEY_INTS = 7;
+    private static final int LINE_START = 0;
+    private static final int LINE_LENGTH = 1;
+    private static final int RANK = 2;
+    private static final int PREDICATE_START = 3;
+    private static final int PREDICATE_LENGTH = 4;
+    private static final int SUBJECT_START = 5;
+    private static final int SUBJECT_LENGTH = 6;
+
+    private final BytesIntHashMap rankOfPredicate;
+    private final int unknownPredicateRank;
+    private final int noTripleRank;
+
+    private ExternalPredicateSort(PredicateDictionary dictionary) {
+        rankOfPredicate = new BytesIntHashMap(dictionary.size());
+        for (int id = 0; id < dictionary.size(); id++) {
+            byte[] predicate = dictionary.predicate(id).getBytes(StandardCharsets.UTF_8);
+            rankOfPredicate.putIfAbsent(predicate, 0, predicate.length, id);
+        }
+        unknownPredicateRank = dictionary.size();
+        noTripleRank = dictionary.size() + 1;
+    }
+
+    /**
+     * sort the dataset into the output file.
+     *
+     * @param dictionary predicate ids defining the order of the predicates, may be empty
+     * @param memoryBudget bytes of lines and keys held by all threads together
+     * @return number of lines
+     */
+    static long sort(String datasetPath, String outputPath, PredicateDictionary dictionary, long memoryBudget, int threads) throws IOException {
+        ExternalPredicateSort sort = new ExternalPredicateSort(dictionary);
+        Path output = Path.of(outputPath).toAbsolutePath();
+        Path runFolder = Files.createTempDirectory(output.getParent(), "sort-runs");
+        try {
+            // line bytes and keys of one line take about 1.3 times the bytes of the line
+            long runBytes = Math.min(memoryBudget / Math.max(1, threads) * 3 / 4, Integer.MAX_VALUE - 8);
+            List<Path> runs = Collections.synchronizedList(new ArrayList<>());
+            List<RunWriter> writers = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger runNumbers = new AtomicInteger();
+            long lines = ParallelDatasetScanner.scan(datasetPath, threads, () -> {
+                RunWriter writer = sort.new RunWriter((int) Math.max(runBytes, 1 << 16), runFolder, runNumbers, runs);
+                writers.add(writer);
+                return writer;
+            });
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+            try {
+                List<Future<Object>> lastRuns = new ArrayList<>();
+                for (RunWriter writer : writers) {
+                    lastRuns.add(pool.submit(() -> {
+                        writer.writeRun();
+                        return null;
+                    }));
+                }
+                for (Future<Object> lastRun : lastRuns) {
+                    lastRun.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sorting " + datasetPath, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+
+            List<Path> pending = new ArrayList<>(runs);
+            Collections.sort(pending);
+            while (pending.size() > MAX_FAN_IN) {
+                List<Path> merged = new ArrayList<>();
+                for (int i = 0; i < pending.size(); i += MAX_FAN_IN) {
+                    Path run = runFolder.resolve(String.format("run-%08d", runNumbers.getAndIncrement()));
+                    sort.merge(pending.subList(i, Math.min(i + MAX_FAN_IN, pending.size())), run);
+                    merged.add(run);
+                }
+                pending = merged;
+            }
+            sort.merge(pending, output);
+            System.out.printf("Sorted %d lines in %d runs into %s\n", lines, runs.size(), outputPath);
+            return lines;
+        } finally {
+            try (var files = Files.list(runFolder)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(runFolder);
+        }
+    }
+
+    /**
+     * find the key of the line bytes[from, to) and store it at keys[base].
+     */
+    private void key(NTriplesTokenizer tokenizer, byte[] bytes, int from, int to, int[] keys, int base) {
+        keys[base + LINE_START] = from;
+        keys[base + LINE_LENGTH] = to - from;
+        if (tokenizer.predicate(bytes, from, to)) {
+            int rank = rankOfPredicate.get(bytes, tokenizer.predicateStart, tokenizer.predicateEnd);
+            keys[base + RANK] = rank == BytesIntHashMap.NOT_FOUND ? unknownPredicateRank : rank;
+            keys[base + PREDICATE_START] = tokenizer.predicateStart;
+            keys[base + PREDICATE_LENGTH] = tokenizer.predicateEnd - tokenizer.predicateStart;
+            keys[base + SUBJECT_START] = tokenizer.subjectStart;
+            keys[base + SUBJECT_LENGTH] = tokenizer.subjectEnd - tokenizer.subjectStart;
+        } else {
+            keys[base + RANK] = noTripleRank;
+            keys[base + PREDICATE_START] = from;
+            keys[base + PREDICATE_LENGTH] = 0;
+            keys[base + SUBJECT_START] = from;
+            keys[base + SUBJECT_LENGTH] = 0;
+        }
+    }
+
+    private static int compare(byte[] a, int[] aKeys, int aBase, byte[] b, int[] bKeys, int bBase) {
+        int result = Integer.compare(aKeys[aBase + RANK], bKeys[bBase + RANK]);
+        if (result == 0) {
+            result = Arrays.compareUnsigned(a, aKeys[aBase + PREDICATE_START], aKeys[aBase + PREDICATE_START] + aKeys[aBase + PREDICATE_LENGTH],
+                    b, bKeys[bBase + PREDICATE_START], bKeys[bBase + PREDICATE_START] + bKeys[bBase + PREDICATE_LENGTH]);
+        }
+        if (result == 0) {
+            result = Arrays.compareUnsigned(a, aKeys[aBase + SUBJECT_START], aKeys[aBase + SUBJECT_START] + aKeys[aBase + SUBJECT_LENGTH],
+                    b, bKeys[bBase + SUBJECT_START], bKeys[bBase + SUBJECT_START] + bKeys[bBase + SUBJECT_LENGTH]);
+        }
+        if (result == 0) {
+            result = Arrays.compareUnsigned(a, aKeys[aBase + LINE_START], aKeys[aBase + LINE_START] + aKeys[aBase + LINE_LENGTH],
+                    b, bKeys[bBase + LINE_START], bKeys[bBase + LINE_START] + bKeys[bBase + LINE_LENGTH]);
+        }
+        return result;
+    }
+
+    /**
+     * collects the lines of one scanner thread and writes them as sorted runs.
+     */
+    private class RunWriter implements ParallelDatasetScanner.LineHandler {
+
+        private final NTriplesTokenizer tokenizer = new NTriplesTokenizer();
+        private final Path runFolder;
+        private final AtomicInteger runNumbers;
+        private final List<Path> runs;
+        private final byte[] lines;
+        private int length;
+        private int[] keys = new int[KEY_INTS * 1024];
+        private int count;
+
+        RunWriter(int runBytes, Path runFolder, AtomicInteger runNumbers, List<Path> runs) {
+            this.lines = new byte[runBytes];
+            this.runFolder = runFolder;
+            this.runNumbers = runNumbers;
+            this.runs = runs;
+        }
+
+        @Override
+        public void handleLine(byte[] chunk, int from, int to) throws IOException {
+            if (to - from > lines.length) {
+                throw new IOException("Line of " + (to - from) + " bytes does not fit into the sort buffer");
+            }
+            if (length + to - from > lines.length) {
+                writeRun();
+            }
+            System.arraycopy(chunk, from, lines, length, to - from);
+            if ((count + 1) * KEY_INTS > keys.length) {
+                keys = Arrays.copyOf(keys, 2 * keys.length);
+            }
+            key(tokenizer, lines, length, length + to - from, keys, count * KEY_INTS);
+            length += to - from;
+            count++;
+        }
+
+        @Override
+        public void endOfChunk() {
+            // the lines were copied into the run buffer
+        }
+
+        void writeRun() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i * KEY_INTS;
+            }
+            mergeSort(order, new int[count], 0, count);
+
+            Path run = runFolder.resolve(String.format("run-%08d", runNumbers.getAndIncrement()));
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(run), OUTPUT_BUFFER)) {
+                for (int base : order) {
+                    out.write(lines, keys[base + LINE_START], keys[base + LINE_LENGTH]);
+                    out.write(LINE_SEPARATOR);
+                }
+            }
+            runs.add(run);
+            length = 0;
+            count = 0;
+        }
+
+        private void mergeSort(int[] order, int[] scratch, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            mergeSort(order, scratch, from, middle);
+            mergeSort(order, scratch, middle, to);
+            if (compare(lines, keys, order[middle - 1], lines, keys, order[middle]) <= 0) {
+                return;
+            }
+            System.arraycopy(order, from, scratch, from, to - from);
+            int left = from;
+            int right = middle;
+            for (int i = from; i < to; i++) {
+                if (right >= to || left < middle && compare(lines, keys, scratch[left], lines, keys, scratch[right]) <= 0) {
+                    order[i] = scratch[left++];
+                } else {
+                    order[i] = scratch[right++];
+                }
+            }
+        }
+    }
+
+    /**
+     * merge sorted runs into one sorted file.
+     */
+    private void merge(List<Path> runs, Path output) throws IOException {
+        List<RunReader> readers = new ArrayList<>();
+        PriorityQueue<RunReader> heads = new PriorityQueue<>((a, b) -> {
+            int result = compare(a.line, a.key, 0, b.line, b.key, 0);
+            return result != 0 ? result : Integer.compare(a.index, b.index);
+        });
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), OUTPUT_BUFFER)) {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run, readers.size());
+                readers.add(reader);
+                if (reader.next()) {
+                    heads.add(reader);
+                }
+            }
+            RunReader head;
+            while ((head = heads.poll()) != null) {
+                out.write(head.line, 0, head.key[LINE_LENGTH]);
+                out.write(LINE_SEPARATOR);
+                if (head.next()) {
+                    heads.add(head);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.in.close();
+            }
+        }
+    }
+
+    /**
+     * reads the lines of a run one after the other together with their keys.
+     */
+    private class RunReader {
+
+        private final NTriplesTokenizer tokenizer = new NTriplesTokenizer();
+        private final InputStream in;
+        private final int index;
+        private final byte[] buffer = new byte[1 << 16];
+        private int position;
+        private int limit;
+        byte[] line = new byte[256];
+        final int[] key = new int[KEY_INTS];
+
+        RunReader(Path run, int index) throws IOException {
+            this.in = Files.newInputStream(run);
+            this.index = index;
+        }
+
+        /**
+         * @return whether there was another line
+         */
+        boolean next() throws IOException {
+            int length = 0;
+            while (true) {
+                if (position == limit) {
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        if (length == 0) {
+                            return false;
+                        }
+                        break;
+                    }
+                }
+                byte b = buffer[position++];
+                if (b == '\n') {
+                    break;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, 2 * length);
+                }
+                line[length++] = b;
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            key(tokenizer, line, 0, length, key, 0);
+            return true;
+        }
+    }
+
+    /**
+     * sort a dataset, arguments: dataset, sorted output file [predicate file]
+     */
+    public static void main(String[] args) throws IOException {
+        PredicateDictionary dictionary = args.length > 2 ? PredicateDictionary.forPredicateFile(args[2]) : new PredicateDictionary();
+        sort(args[0], args[1], dictionary, PathConstants.SORT_MEMORY_BYTES, PathConstants.SCAN_THREADS);
+    }
+}
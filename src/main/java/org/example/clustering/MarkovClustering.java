@@ -26,6 +26,8 @@ import de.uni_leipzig.mcl.cluster.SparseVector;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
 
 /**
@@ -87,21 +89,33 @@ public class MarkovClustering{
      * @return the resulting matrix
      */
     public SparseMatrix run(SparseMatrix a, double maxResidual, double pGamma, double loopGain, double maxZero){
+        return run(a, new MclParameters().maxResidual(maxResidual).inflation(pGamma).loopGain(loopGain)
+                .pruneThreshold(maxZero));
+    }
+
+    /**
+     * run the MCL process.
+     *
+     * @param a matrix
+     * @param parameters settings of the process
+     * @return the resulting matrix
+     */
+    public SparseMatrix run(SparseMatrix a, MclParameters parameters){
 
         // add cycles
-        addLoops(a, loopGain);
+        addLoops(a, parameters.getLoopGain());
         // make stochastic
         a.normaliseRows();
 
-        double residual = 1.;
-        int i = 0;
+        MclConvergence convergence = new MclConvergence(parameters);
+        double residual;
 
         // main iteration
-        while (residual > maxResidual){
-            i++;
+        do {
             a = expand(a);
-            residual = inflate(a, pGamma, maxZero);
-        }
+            residual = inflate(a, parameters);
+        } while (!convergence.isDone(residual, fingerprint(a), nonZeros(a)));
+        convergence.printIfNotConverged();
         return a;
     }
 
@@ -120,12 +134,28 @@ public class MarkovClustering{
      * @return residuum value, m is modified.
      */
     public double inflate(SparseMatrix m, double p, double zeromax){
+        return inflate(m, new MclParameters().inflation(p).pruneThreshold(zeromax));
+    }
+
+    /**
+     * inflate stochastic matrix like {@link #inflate(SparseMatrix, double, double)},
+     * pruning also selects and recovers entries as set in the parameters.
+     *
+     * @param m matrix (mutable)
+     * @param parameters inflation exponent and pruning settings
+     * @return residuum value, m is modified.
+     */
+    public double inflate(SparseMatrix m, MclParameters parameters){
         double res = 0.;
 
         // matlab: m = m .^ p
-        m.hadamardPower(p);
+        m.hadamardPower(parameters.getInflation());
         // matlab: m(find(m < threshold)) = 0
-        m.prune(zeromax);
+        if (parameters.hasColumnControls()) {
+            pruneRows(m, parameters);
+        } else {
+            m.prune(parameters.getPruneThreshold());
+        }
         // matlab [for cols]: dinv = diag(1./sum(m)); m = m * dinv; return
         // sum(m)
         SparseVector rowsums = m.normalise(1.);
@@ -141,6 +171,55 @@ public class MarkovClustering{
         return res;
     }
 
+    /**
+     * prune every row with selection and recovery, see {@link MclPruning}.
+     */
+    private void pruneRows(SparseMatrix m, MclParameters parameters)
+    {
+        for (SparseVector row : m)
+        {
+            int[] columns = new int[row.size()];
+            double[] values = new double[row.size()];
+            int count = 0;
+            for (Map.Entry<Integer, Double> entry : row.entrySet())
+            {
+                columns[count] = entry.getKey();
+                values[count++] = entry.getValue();
+            }
+            int kept = MclPruning.prune(columns, values, count, parameters);
+            for (int i = kept; i < count; i++)
+            {
+                row.remove(columns[i]);
+            }
+        }
+    }
+
+    /**
+     * @return fingerprint of the matrix for {@link MclConvergence}
+     */
+    private static long nonZeros(SparseMatrix m)
+    {
+        long nonZeros = 0;
+        for (int i = 0; i < m.size(); i++)
+        {
+            nonZeros += m.get(i).size();
+        }
+        return nonZeros;
+    }
+
+    private static long fingerprint(SparseMatrix m)
+    {
+        long fingerprint = 0;
+        for (int i = 0; i < m.size(); i++)
+        {
+            for (Map.Entry<Integer, Double> entry : m.get(i).entrySet())
+            {
+                fingerprint += MclConvergence.entryHash(i, entry.getKey(), entry.getValue());
+            }
+        }
+        return fingerprint;
+    }
+
     /**
      * expand stochastic quadratic matrix by sqaring it with itself: result = m *
      * m. Here normalisation is rowwise.
@@ -173,29 +252,108 @@ public class MarkovClustering{
         }
     }
 
+    /**
+     * implementation running the MCL process in {@link #findClusters}.
+     */
+    public enum Engine {
+        /**
+         * this class on Cugar's HashMap based SparseMatrix
+         */
+        CUGAR,
+        /**
+         * {@link CsrMarkovClustering} on primitive CSR arrays with row-parallel expansion
+         */
+        NATIVE,
+        /**
+         * {@link ComponentMarkovClustering}, the native engine on every connected component of the graph on its own
+         */
+        COMPONENTS
+    }
+
     public static void findClusters(String graphWeightFile, String clusterFile) {
+        findClusters(graphWeightFile, clusterFile, new MclParameters());
+    }
 
-        double maxResidual = 0.001;
-        double gammaExp = 2.0;
-        double loopGain = 0.00;
-        double zeroMax = 0.001;
+    public static void findClusters(String graphWeightFile, String clusterFile, MclParameters parameters) {
+        findClusters(graphWeightFile, clusterFile, parameters, PathConstants.MCL_ENGINE, PathConstants.MCL_THREADS);
+    }
 
-        SparseMatrixLabeled matrix = SparseMatrixLabeled.loadMatrix(graphWeightFile," ");
+    public static void findClusters(String graphWeightFile, String clusterFile, Engine engine, int threads) {
+        findClusters(graphWeightFile, clusterFile, new MclParameters(), engine, threads);
+    }
 
-        // we use the transpose because our sparse matrices are row-major
-        matrix.setMatrix(matrix.getMatrix().transpose());
-        matrix.setMatrix(new MarkovClustering().run(matrix.getMatrix(), maxResidual, gammaExp, loopGain, zeroMax));
+    public static void findClusters(String graphWeightFile, String clusterFile, MclParameters parameters,
+                                    Engine engine, int threads) {
+        try (Metrics.Stage stage = Metrics.stage("mcl")) {
+            List<TreeSet<String>> clusters;
+            if (engine == Engine.NATIVE || engine == Engine.COMPONENTS) {
+                WeightGraph graph;
+                try {
+                    graph = WeightGraph.load(graphWeightFile);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                if (engine == Engine.COMPONENTS) {
+                    clusters = ComponentMarkovClustering.findClusters(graph, parameters, threads);
+                } else {
+                    // same transpose as below, the shared rows make the matrix asymmetric
+                    CsrMarkovClustering.State result = new CsrMarkovClustering(threads)
+                            .run(graph.matrix.transpose(), parameters);
+                    clusters = CsrMarkovClustering.clusters(result, graph.labels);
+                }
+            } else {
+                SparseMatrixLabeled matrix = loadMatrix(graphWeightFile);
 
+                // we use the transpose because our sparse matrices are row-major
+                matrix.setMatrix(matrix.getMatrix().transpose());
+                matrix.setMatrix(new MarkovClustering().run(matrix.getMatrix(), parameters));
+                clusters = matrix.getCluster();
+            }
+
+            stage.count("clusters", clusters.size());
+            writeClusters(clusters, clusterFile);
+        }
+    }
+
+    /**
+     * write one cluster per line, like "[p1, p2]".
+     */
+    static void writeClusters(List<TreeSet<String>> clusters, String clusterFile) {
         try (FileWriter clusterWriter = new FileWriter(clusterFile)) {
-            for (TreeSet<String> s : matrix.getCluster()) {
+            for (TreeSet<String> s : clusters) {
                 clusterWriter.write(s.toString() + "\n");
                 clusterWriter.flush();
             }
         } catch (IOException e) {
             System.err.println("Error writing the cluster file");
         }
+    }
 
+    /**
+     * load the graph like {@link SparseMatrixLabeled#loadMatrix}, from the binary graph file if there is one.
+     */
+    static SparseMatrixLabeled loadMatrix(String graphWeightFile) {
+        WeightGraphFile file;
+        try {
+            if (!WeightGraphFile.ensureCurrent(graphWeightFile)) {
+                return SparseMatrixLabeled.loadMatrix(graphWeightFile, " ");
+            }
+            file = WeightGraphFile.load(WeightGraphFile.binaryFileFor(graphWeightFile));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        SparseMatrixLabeled matrix = new SparseMatrixLabeled();
+        for (int edge = 0; edge < file.edgeCount(); edge++) {
+            if (file.first(edge) != file.second(edge)) {
+                String label1 = String.valueOf(file.first(edge));
+                String label2 = String.valueOf(file.second(edge));
+                matrix.add(label1, label2, file.weight(edge));
+                matrix.add(label2, label1, file.weight(edge));
+            }
+        }
+        return matrix;
     }
+
     private static void print(SparseMatrix a, String label) {
         System.out.println(label + ":");
         for(int i = 0 ; i < a.size();i++){
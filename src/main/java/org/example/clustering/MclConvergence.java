@@ -0,0 +1,109 @@
+package org.example.clustering;
+
+/**
+ * MclConvergence decides when the MCL process stops. Besides the residual
+ * test it stops after maxIterations iterations and when the process
+ * oscillates, i.e. when a matrix equals one of the oscillationWindow matrices
+ * before it. The process is deterministic, so from then on it would only
+ * repeat these matrices and never reach the residual.
+ * <p>
+ * Matrices are compared by a 64 bit fingerprint which does not depend on
+ * the order their entries are visited in, see {@link #entryHash}.
+ */
+class MclConvergence {
+
+    private final MclParameters parameters;
+    private final long[] fingerprints;
+    private int iterations;
+    private String reason;
+    private long iterationStart = System.nanoTime();
+    private long peakNonZeros;
+    private final boolean recordIterations;
+
+    MclConvergence(MclParameters parameters) {
+        this(parameters, true);
+    }
+
+    /**
+     * @param recordIterations record every iteration in the {@link Metrics}, e.g. not for the many small runs of
+     *        {@link ComponentMarkovClustering}
+     */
+    MclConvergence(MclParameters parameters, boolean recordIterations) {
+        this.parameters = parameters;
+        this.fingerprints = new long[Math.max(0, parameters.getOscillationWindow())];
+        this.recordIterations = recordIterations;
+    }
+
+    /**
+     * @param residual residual of the matrix after the last iteration
+     * @param fingerprint sum of the {@link #entryHash entry hashes} of that matrix
+     * @param nonZeros entries of that matrix, recorded with the duration of the iteration in the {@link Metrics}
+     * @return true if the process should stop
+     */
+    boolean isDone(double residual, long fingerprint, long nonZeros) {
+        iterations++;
+        long now = System.nanoTime();
+        if (recordIterations) {
+            Metrics.mclIteration(iterations, residual, nonZeros, now - iterationStart);
+        }
+        peakNonZeros = Math.max(peakNonZeros, nonZeros);
+        iterationStart = now;
+        if (residual <= parameters.getMaxResidual()) {
+            reason = "converged";
+            return true;
+        }
+        for (int i = 0; i < Math.min(iterations - 1, fingerprints.length); i++) {
+            if (fingerprints[i] == fingerprint) {
+                // slot i holds the latest iteration j before this one with (j - 1) % length == i
+                int period = 1 + Math.floorMod(iterations - 2 - i, fingerprints.length);
+                reason = "oscillating with period " + period + ", residual " + residual;
+                return true;
+            }
+        }
+        if (fingerprints.length > 0) {
+            fingerprints[(iterations - 1) % fingerprints.length] = fingerprint;
+        }
+        if (parameters.getMaxIterations() > 0 && iterations >= parameters.getMaxIterations()) {
+            reason = "iteration limit reached, residual " + residual;
+            return true;
+        }
+        return false;
+    }
+
+    int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return most entries of the matrix after any iteration
+     */
+    long getPeakNonZeros() {
+        return peakNonZeros;
+    }
+
+    /**
+     * @return why the process stopped, null while it runs
+     */
+    String getReason() {
+        return reason;
+    }
+
+    /**
+     * report a process that stopped without converging.
+     */
+    void printIfNotConverged() {
+        if (reason != null && !reason.equals("converged")) {
+            System.out.println("MCL stopped after " + iterations + " iterations: " + reason);
+        }
+    }
+
+    static long entryHash(int row, int column, double value) {
+        long h = ((long) row << 32 | (column & 0xffffffffL)) * 0x9e3779b97f4a7c15L ^ Double.doubleToLongBits(value);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
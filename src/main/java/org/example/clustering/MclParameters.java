@@ -0,0 +1,160 @@
+package org.example.clustering;
+
+/**
+ * MclParameters holds the settings of the MCL process used by both
+ * {@link MarkovClustering.Engine engines}. The defaults are the values
+ * {@link MarkovClustering#findClusters(String, String)} always used, selection
+ * and recovery are switched off.
+ * <p>
+ * Besides the absolute pruning threshold, the number of entries of a column
+ * (a row in our row-major matrices) can be bounded like in van Dongen's mcl:
+ * <ul>
+ *     <li>selection keeps only the selectNumber largest entries of a column
+ *     with more entries left after pruning,</li>
+ *     <li>recovery gives back the largest pruned entries of a column, up to
+ *     recoverNumber entries in total, when pruning removed so much that less
+ *     than recoverPercent of its mass is left.</li>
+ * </ul>
+ * maxIterations and oscillationWindow bound the number of iterations when
+ * the residual does not fall below maxResidual, see {@link MclConvergence}.
+ * <p>
+ * All setters return this, so parameters can be chained:
+ * {@code new MclParameters().inflation(1.8).selectNumber(50)}.
+ */
+public class MclParameters {
+
+    private double maxResidual = 0.001;
+    private double inflation = 2.0;
+    private double loopGain = 0.;
+    private double pruneThreshold = 0.001;
+    private int selectNumber = 0;
+    private int recoverNumber = 0;
+    private double recoverPercent = 0.9;
+    private int maxIterations = 100;
+    private int oscillationWindow = 4;
+
+    /**
+     * @param maxResidual maximum difference between row elements and row square
+     *        sum (measure of idempotence)
+     */
+    public MclParameters maxResidual(double maxResidual) {
+        this.maxResidual = maxResidual;
+        return this;
+    }
+
+    /**
+     * @param inflation inflation exponent for Gamma operator
+     */
+    public MclParameters inflation(double inflation) {
+        this.inflation = inflation;
+        return this;
+    }
+
+    /**
+     * @param loopGain values for cycles
+     */
+    public MclParameters loopGain(double loopGain) {
+        this.loopGain = loopGain;
+        return this;
+    }
+
+    /**
+     * @param pruneThreshold maximum value considered zero for pruning operations
+     */
+    public MclParameters pruneThreshold(double pruneThreshold) {
+        this.pruneThreshold = pruneThreshold;
+        return this;
+    }
+
+    /**
+     * @param selectNumber maximum number of entries per column, 0 for no limit
+     */
+    public MclParameters selectNumber(int selectNumber) {
+        this.selectNumber = selectNumber;
+        return this;
+    }
+
+    /**
+     * @param recoverNumber number of entries per column recovery restores at most, 0 for no recovery
+     */
+    public MclParameters recoverNumber(int recoverNumber) {
+        this.recoverNumber = recoverNumber;
+        return this;
+    }
+
+    /**
+     * @param recoverPercent share of the mass of a column below which recovery starts
+     */
+    public MclParameters recoverPercent(double recoverPercent) {
+        this.recoverPercent = recoverPercent;
+        return this;
+    }
+
+    /**
+     * @param maxIterations maximum number of expansion and inflation steps, 0 for no limit
+     */
+    public MclParameters maxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+        return this;
+    }
+
+    /**
+     * @param oscillationWindow number of previous matrices a new one is
+     *        compared with to detect that the process cycles, 0 to switch the check off
+     */
+    public MclParameters oscillationWindow(int oscillationWindow) {
+        this.oscillationWindow = oscillationWindow;
+        return this;
+    }
+
+    public double getMaxResidual() {
+        return maxResidual;
+    }
+
+    public double getInflation() {
+        return inflation;
+    }
+
+    public double getLoopGain() {
+        return loopGain;
+    }
+
+    public double getPruneThreshold() {
+        return pruneThreshold;
+    }
+
+    public int getSelectNumber() {
+        return selectNumber;
+    }
+
+    public int getRecoverNumber() {
+        return recoverNumber;
+    }
+
+    public double getRecoverPercent() {
+        return recoverPercent;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public int getOscillationWindow() {
+        return oscillationWindow;
+    }
+
+    /**
+     * @return true if selection or recovery can change a pruned column
+     */
+    boolean hasColumnControls() {
+        return selectNumber > 0 || recoverNumber > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "inflation=" + inflation + " maxResidual=" + maxResidual + " loopGain=" + loopGain
+                + " pruneThreshold=" + pruneThreshold + " selectNumber=" + selectNumber
+                + " recoverNumber=" + recoverNumber + " recoverPercent=" + recoverPercent
+                + " maxIterations=" + maxIterations + " oscillationWindow=" + oscillationWindow;
+    }
+}
@@ -0,0 +1,108 @@
+package org.example.clustering;
+
+/**
+ * MclPruning prunes one column of the inflated matrix with selection and
+ * recovery, see {@link MclParameters}. Both MCL engines use it so they keep
+ * the same entries: ties between equal values are broken by the smaller
+ * column.
+ */
+final class MclPruning {
+
+    private MclPruning() {
+    }
+
+    /**
+     * prune the entries [0, count) given as parallel arrays of columns and values.
+     *
+     * @return number of entries kept, they are moved to the front of the arrays
+     */
+    static int prune(int[] columns, double[] values, int count, MclParameters parameters) {
+        double threshold = parameters.getPruneThreshold();
+        int kept = 0;
+        double mass = 0.;
+        for (int i = 0; i < count; i++) {
+            mass += values[i];
+            if (!(Math.abs(values[i]) < threshold)) {
+                swap(columns, values, i, kept++);
+            }
+        }
+
+        int recoverNumber = parameters.getRecoverNumber();
+        int selectNumber = parameters.getSelectNumber();
+        if (recoverNumber > 0 && kept < recoverNumber) {
+            double keptMass = 0.;
+            for (int i = 0; i < kept; i++) {
+                keptMass += values[i];
+            }
+            double requiredMass = parameters.getRecoverPercent() * mass;
+            if (keptMass < requiredMass) {
+                sortDescending(columns, values, kept, count);
+                while (kept < recoverNumber && kept < count && keptMass < requiredMass) {
+                    keptMass += values[kept++];
+                }
+            }
+        } else if (selectNumber > 0 && kept > selectNumber) {
+            sortDescending(columns, values, 0, kept);
+            kept = selectNumber;
+        }
+        return kept;
+    }
+
+    /**
+     * sort by value descending and column ascending, quicksort with insertion
+     * sort for short ranges.
+     */
+    static void sortDescending(int[] columns, double[] values, int from, int to) {
+        while (to - from > 16) {
+            int middle = (from + to) >>> 1;
+            int pivotColumn = columns[middle];
+            double pivotValue = values[middle];
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (before(columns[i], values[i], pivotColumn, pivotValue)) {
+                    i++;
+                }
+                while (before(pivotColumn, pivotValue, columns[j], values[j])) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(columns, values, i++, j--);
+                }
+            }
+            // recurse into the smaller part to bound the stack depth
+            if (j + 1 - from < to - i) {
+                sortDescending(columns, values, from, j + 1);
+                from = i;
+            } else {
+                sortDescending(columns, values, i, to);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            int column = columns[i];
+            double value = values[i];
+            int j = i - 1;
+            while (j >= from && before(column, value, columns[j], values[j])) {
+                columns[j + 1] = columns[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            columns[j + 1] = column;
+            values[j + 1] = value;
+        }
+    }
+
+    private static boolean before(int column1, double value1, int column2, double value2) {
+        return value1 > value2 || (value1 == value2 && column1 < column2);
+    }
+
+    private static void swap(int[] columns, double[] values, int i, int j) {
+        int column = columns[i];
+        columns[i] = columns[j];
+        columns[j] = column;
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
@@ -0,0 +1,200 @@
+package org.example.clustering;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.opencsv.CSVWriter;
+
+/**
+ * MclSweep clusters one weight graph with a grid of MCL settings at once.
+ * The graph is loaded a single time and every setting runs as a task on a
+ * thread pool with the {@link MarkovClustering.Engine#NATIVE native} engine,
+ * which reads the matrix without changing it, so all tasks share it. Every
+ * setting writes its own cluster file and one line of the summary file with
+ * its iterations, wall time, peak non-zeros and the sizes of its clusters.
+ * <p>
+ * {@code java org.example.clustering.MclSweep graphweight.txt outputFolder 1.4,2,3 [loopGains] [pruneThresholds] [threads]}
+ */
+final class MclSweep {
+
+    private MclSweep() {
+    }
+
+    /**
+     * outcome of one setting.
+     */
+    static class Result {
+
+        final MclParameters parameters;
+        final String clusterFile;
+        final int iterations;
+        final String stopReason;
+        final long millis;
+        final long peakNonZeros;
+        final int[] clusterSizes;
+
+        Result(MclParameters parameters, String clusterFile, int iterations, String stopReason, long millis, long peakNonZeros, int[] clusterSizes) {
+            this.parameters = parameters;
+            this.clusterFile = clusterFile;
+            this.iterations = iterations;
+            this.stopReason = stopReason;
+            this.millis = millis;
+            this.peakNonZeros = peakNonZeros;
+            this.clusterSizes = clusterSizes;
+        }
+    }
+
+    /**
+     * @return a setting for every combination of the values, inflation varies slowest
+     */
+    static List<MclParameters> grid(double[] inflations, double[] loopGains, double[] pruneThresholds) {
+        List<MclParameters> grid = new ArrayList<>();
+        for (double inflation : inflations) {
+            for (double loopGain : loopGains) {
+                for (double pruneThreshold : pruneThresholds) {
+                    grid.add(new MclParameters().inflation(inflation).loopGain(loopGain).pruneThreshold(pruneThreshold));
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * run all settings on threads threads and write the cluster files and summary.csv to the output folder.
+     *
+     * @return the results in the order of the settings
+     */
+    static List<Result> sweep(String graphWeightFile, String outputFolder, List<MclParameters> settings, int threads) throws IOException {
+        WeightGraph graph = WeightGraph.load(graphWeightFile);
+        // same transpose as in findClusters
+        CsrMatrix matrix = graph.matrix.transpose();
+        Files.createDirectories(Path.of(outputFolder));
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Result> results = new ArrayList<>();
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (MclParameters parameters : settings) {
+                String clusterFile = Path.of(outputFolder, "clusters-" + name(parameters) + ".txt").toString();
+                futures.add(pool.submit(() -> run(matrix, graph.labels, parameters, clusterFile)));
+            }
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sweeping " + graphWeightFile, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        writeSummary(results, Path.of(outputFolder, "summary.csv").toString());
+        return results;
+    }
+
+    private static Result run(CsrMatrix matrix, String[] labels, MclParameters parameters, String clusterFile) {
+        long start = System.currentTimeMillis();
+        MclConvergence convergence = new MclConvergence(parameters);
+        // one thread per setting, the settings keep the pool busy
+        CsrMarkovClustering.State state = new CsrMarkovClustering(1).run(matrix, parameters, convergence);
+        List<TreeSet<String>> clusters = CsrMarkovClustering.clusters(state, labels);
+        long millis = System.currentTimeMillis() - start;
+        MarkovClustering.writeClusters(clusters, clusterFile);
+
+        int[] clusterSizes = new int[clusters.size()];
+        for (int i = 0; i < clusterSizes.length; i++) {
+            clusterSizes[i] = clusters.get(i).size();
+        }
+        Arrays.sort(clusterSizes);
+        return new Result(parameters, clusterFile, convergence.getIterations(), convergence.getReason(), millis,
+                convergence.getPeakNonZeros(), clusterSizes);
+    }
+
+    private static String name(MclParameters parameters) {
+        return "i" + parameters.getInflation() + "-l" + parameters.getLoopGain() + "-p" + parameters.getPruneThreshold();
+    }
+
+    private static void writeSummary(List<Result> results, String summaryFile) throws IOException {
+        try (CSVWriter writer = new CSVWriter(new BufferedWriter(new FileWriter(summaryFile)), ',', '"', '\\', "\n")) {
+            writer.writeNext(new String[] {"inflation", "loop gain", "prune threshold", "iterations", "stop reason", "millis",
+                    "peak non zeros", "clusters", "singletons", "smallest", "median", "largest", "sizes", "cluster file"}, false);
+            for (Result result : results) {
+                int[] sizes = result.clusterSizes;
+                int singletons = 0;
+                while (singletons < sizes.length && sizes[singletons] == 1) {
+                    singletons++;
+                }
+                writer.writeNext(new String[] {
+                        String.valueOf(result.parameters.getInflation()),
+                        String.valueOf(result.parameters.getLoopGain()),
+                        String.valueOf(result.parameters.getPruneThreshold()),
+                        String.valueOf(result.iterations),
+                        result.stopReason,
+                        String.valueOf(result.millis),
+                        String.valueOf(result.peakNonZeros),
+                        String.valueOf(sizes.length),
+                        String.valueOf(singletons),
+                        sizes.length == 0 ? "" : String.valueOf(sizes[0]),
+                        sizes.length == 0 ? "" : String.valueOf(sizes[sizes.length / 2]),
+                        sizes.length == 0 ? "" : String.valueOf(sizes[sizes.length - 1]),
+                        sizeHistogram(sizes),
+                        result.clusterFile}, false);
+            }
+        }
+    }
+
+    /**
+     * @return number of clusters per power of two of their size, e.g. "1:4 2-3:2 8-15:1"
+     */
+    static String sizeHistogram(int[] sortedSizes) {
+        StringBuilder histogram = new StringBuilder();
+        int i = 0;
+        while (i < sortedSizes.length) {
+            int low = Integer.highestOneBit(sortedSizes[i]);
+            int high = 2 * low - 1;
+            int count = 0;
+            while (i < sortedSizes.length && sortedSizes[i] <= high) {
+                count++;
+                i++;
+            }
+            if (histogram.length() > 0) {
+                histogram.append(' ');
+            }
+            histogram.append(low == high ? String.valueOf(low) : low + "-" + high).append(':').append(count);
+        }
+        return histogram.toString();
+    }
+
+    private static double[] values(String list) {
+        return Arrays.stream(list.split(",")).mapToDouble(Double::parseDouble).toArray();
+    }
+
+    public static void main(String[] args) throws IOException {
+        String graphWeightFile = args.length > 0 ? args[0] : PathConstants.GRAPH_WEIGHT_FILE;
+        String outputFolder = args.length > 1 ? args[1] : PathConstants.PATH + "pcm/mcl-sweep";
+        double[] inflations = values(args.length > 2 ? args[2] : "1.4,1.6,1.8,2.0,2.5,3.0");
+        double[] loopGains = values(args.length > 3 ? args[3] : "0");
+        double[] pruneThresholds = values(args.length > 4 ? args[4] : "0.001");
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : PathConstants.MCL_THREADS;
+
+        long start = System.currentTimeMillis();
+        List<Result> results = sweep(graphWeightFile, outputFolder, grid(inflations, loopGains, pruneThresholds), threads);
+        for (Result result : results) {
+            System.out.printf("%s: %d clusters after %d iterations in %d ms\n", name(result.parameters),
+                    result.clusterSizes.length, result.iterations, result.millis);
+        }
+        System.out.printf("Swept %d settings in %d ms\n", results.size(), System.currentTimeMillis() - start);
+    }
+}
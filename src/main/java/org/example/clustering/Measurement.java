@@ -22,15 +22,22 @@ public class Measurement {
     private long partitionTime;
     private List<Long> partitionFileSizes;
     private final String measurementFilePath;
+    private final Metrics metrics = new Metrics();
 
     public Measurement(String measurementFilePath) {
         this.measurementFilePath = measurementFilePath;
     }
 
+    /**
+     * append one row to the measurement file, the header is only written when the file does not exist yet.
+     * The bytes of the partitions are not part of the row, they are in the metrics files next to it.
+     */
     public void writeToFile(boolean addHeader) {
+        // the FileWriter creates the file, so check before opening it
+        boolean newFile = !new File(measurementFilePath).exists();
         try (CSVWriter writer = new CSVWriter(new BufferedWriter(new FileWriter(measurementFilePath, true)), ',', '"', '\\', "\n")) {
             List<String[]> list = new ArrayList<>();
-            if (addHeader && !new File(measurementFilePath).exists()) {
+            if (addHeader && newFile) {
                 list.add(generateHeader());
             }
 
@@ -50,6 +57,14 @@ public class Measurement {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        metrics.writeNextTo(measurementFilePath);
+    }
+
+    /**
+     * @return stage timings, MCL iterations and partition sizes of the run, written next to the measurement file
+     */
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     private String[] generateHeader() {
@@ -69,6 +84,24 @@ public class Measurement {
         return this;
     }
 
+    /**
+     * take the number of triples of the partitions and the number of lines of
+     * the dataset from the counters of the partitioning scan, the bytes of the
+     * partitions go to the {@link Metrics}.
+     */
+    Measurement setPartitionCounts(PartitionCounts counts) {
+        this.dataSetSize = counts.datasetLines;
+        metrics.setPartitionCounts(counts);
+        partitionFileSizes = new ArrayList<>();
+        for (int i = 0; i < counts.triples.length; i++) {
+            partitionFileSizes.add(counts.triples[i]);
+        }
+        return this;
+    }
+
+    /**
+     * count the lines of the partition files, for partitions written without counters.
+     */
     public Measurement setPartitionFileSizes() throws IOException {
         partitionFileSizes = new ArrayList<>();
         for (int i = 0; i < PathConstants.TOTAL_PARTITIONS; i++) {
@@ -89,17 +122,15 @@ public class Measurement {
         this.querySetSize = querySetSize;
     }
 
+    long getQuerySetSize() {
+        return querySetSize;
+    }
+
+    /**
+     * the size of the dataset is counted while it is partitioned, see {@link #setPartitionCounts}.
+     */
     public Measurement setDataSetPath(String dataSetPath) {
         this.dataSetPath = dataSetPath;
-        setDataSetSize();
         return this;
     }
-
-    private void setDataSetSize() {
-        try (Stream<String> lines = Files.lines(Paths.get(this.dataSetPath))) {
-            this.dataSetSize = lines.count();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
 }
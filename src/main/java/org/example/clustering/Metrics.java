@@ -0,0 +1,318 @@
+package org.example.clustering;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import com.opencsv.CSVWriter;
+
+/**
+ * Metrics collects where the time of a run goes: the duration, peak heap and
+ * counters of every stage of the pipeline, the residual, non-zeros and
+ * duration of every MCL iteration and the triples and bytes of every
+ * partition. Counters of a stage are also reported per second of the stage,
+ * e.g. queries/s of the weight generation or triples/s of the distribution.
+ * <p>
+ * The stages are marked in the code with {@link #stage}, which records into
+ * the registry {@link #activate activated} for the run and is a no-op for the
+ * registry otherwise. Every stage and MCL iteration is also a JFR event, so a
+ * flight recording of the run shows them next to GC and allocation events.
+ * <p>
+ * The peak heap of a stage is the sum of the peaks of the heap memory pools
+ * while it ran, which can be a bit more than the true peak of the heap.
+ */
+public final class Metrics {
+
+    private static volatile Metrics active;
+    // stages which are running, their peak heap is updated before the pool peaks are reset
+    private static final Deque<Stage> openStages = new ArrayDeque<>();
+
+    private final Instant started = Instant.now();
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<MclIteration> mclIterations = new ArrayList<>();
+    private long[] partitionTriples = new long[0];
+    private long[] partitionBytes = new long[0];
+
+    /**
+     * record the stages of all threads into this registry until {@link #deactivate}.
+     */
+    void activate() {
+        active = this;
+    }
+
+    void deactivate() {
+        if (active == this) {
+            active = null;
+        }
+    }
+
+    /**
+     * start a stage, it ends when it is closed.
+     */
+    static Stage stage(String name) {
+        return new Stage(name, active);
+    }
+
+    /**
+     * record an iteration of the MCL process.
+     *
+     * @param nonZeros entries of the matrix after the iteration
+     */
+    static void mclIteration(int iteration, double residual, long nonZeros, long nanos) {
+        MclIterationEvent event = new MclIterationEvent();
+        if (event.isEnabled()) {
+            event.iteration = iteration;
+            event.residual = residual;
+            event.nonZeros = nonZeros;
+            event.commit();
+        }
+        Metrics metrics = active;
+        if (metrics != null) {
+            synchronized (metrics) {
+                metrics.mclIterations.add(new MclIteration(iteration, residual, nonZeros, nanos));
+            }
+        }
+    }
+
+    synchronized void setPartitionCounts(PartitionCounts counts) {
+        partitionTriples = counts.triples.clone();
+        partitionBytes = counts.bytes.clone();
+    }
+
+    /**
+     * a stage of the pipeline, counters added to it are reported with the stage.
+     */
+    public static final class Stage implements AutoCloseable {
+
+        private final String name;
+        private final Metrics metrics;
+        private final StageEvent event = new StageEvent();
+        private final long start = System.nanoTime();
+        private final Map<String, Long> counters = new LinkedHashMap<>();
+        private long nanos;
+        private long peakHeap;
+
+        private Stage(String name, Metrics metrics) {
+            this.name = name;
+            this.metrics = metrics;
+            event.begin();
+            synchronized (openStages) {
+                samplePeakHeap();
+                openStages.push(this);
+            }
+        }
+
+        /**
+         * add value to the counter of this stage.
+         */
+        public synchronized void count(String counter, long value) {
+            counters.merge(counter, value, Long::sum);
+        }
+
+        @Override
+        public void close() {
+            nanos = System.nanoTime() - start;
+            synchronized (openStages) {
+                samplePeakHeap();
+                openStages.remove(this);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = name;
+                event.peakHeap = peakHeap;
+                event.commit();
+            }
+            if (metrics != null) {
+                synchronized (metrics) {
+                    metrics.stages.add(this);
+                }
+            }
+        }
+
+        double seconds() {
+            return nanos / 1e9;
+        }
+    }
+
+    /**
+     * fold the peak of the heap since the last sample into all running stages and start a new peak.
+     */
+    private static void samplePeakHeap() {
+        long peak = 0;
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                heapPools.add(pool);
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        for (Stage stage : openStages) {
+            stage.peakHeap = Math.max(stage.peakHeap, peak);
+        }
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    private static class MclIteration {
+
+        final int iteration;
+        final double residual;
+        final long nonZeros;
+        final long nanos;
+
+        MclIteration(int iteration, double residual, long nonZeros, long nanos) {
+            this.iteration = iteration;
+            this.residual = residual;
+            this.nonZeros = nonZeros;
+            this.nanos = nanos;
+        }
+    }
+
+    @Name("org.example.clustering.Stage")
+    @Label("PCM Stage")
+    @Category("PCM")
+    static class StageEvent extends Event {
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Peak Heap")
+        @DataAmount
+        long peakHeap;
+    }
+
+    @Name("org.example.clustering.MclIteration")
+    @Label("MCL Iteration")
+    @Category("PCM")
+    static class MclIterationEvent extends Event {
+
+        @Label("Iteration")
+        int iteration;
+
+        @Label("Residual")
+        double residual;
+
+        @Label("Non-Zeros")
+        long nonZeros;
+    }
+
+    /**
+     * @return the metrics file next to the measurement file with the given extension
+     */
+    static String metricsFileFor(String measurementFilePath, String extension) {
+        String base = measurementFilePath.endsWith(".csv") ? measurementFilePath.substring(0, measurementFilePath.length() - 4) : measurementFilePath;
+        return base + "-metrics." + extension;
+    }
+
+    /**
+     * append the metrics of the run to the CSV file, one value per row, and as
+     * one line of JSON to the JSON lines file next to the measurement file.
+     */
+    synchronized void writeNextTo(String measurementFilePath) {
+        String csvFile = metricsFileFor(measurementFilePath, "csv");
+        boolean addHeader = !Files.exists(Path.of(csvFile));
+        try (CSVWriter writer = new CSVWriter(new BufferedWriter(new FileWriter(csvFile, true)), ',', '"', '\\', "\n")) {
+            if (addHeader) {
+                writer.writeNext(new String[] {"run", "kind", "name", "index", "metric", "value"}, false);
+            }
+            String run = started.toString();
+            for (Stage stage : stages) {
+                writer.writeNext(new String[] {run, "stage", stage.name, "", "millis", format(stage.nanos / 1e6)}, false);
+                writer.writeNext(new String[] {run, "stage", stage.name, "", "peak heap bytes", String.valueOf(stage.peakHeap)}, false);
+                for (Map.Entry<String, Long> counter : stage.counters.entrySet()) {
+                    writer.writeNext(new String[] {run, "stage", stage.name, "", counter.getKey(), String.valueOf(counter.getValue())}, false);
+                    writer.writeNext(new String[] {run, "stage", stage.name, "", counter.getKey() + " per second", format(counter.getValue() / stage.seconds())}, false);
+                }
+            }
+            for (MclIteration iteration : mclIterations) {
+                String index = String.valueOf(iteration.iteration);
+                writer.writeNext(new String[] {run, "mcl", "iteration", index, "residual", format(iteration.residual)}, false);
+                writer.writeNext(new String[] {run, "mcl", "iteration", index, "non zeros", String.valueOf(iteration.nonZeros)}, false);
+                writer.writeNext(new String[] {run, "mcl", "iteration", index, "millis", format(iteration.nanos / 1e6)}, false);
+            }
+            for (int i = 0; i < partitionTriples.length; i++) {
+                writer.writeNext(new String[] {run, "partition", "Partition" + i, String.valueOf(i), "triples", String.valueOf(partitionTriples[i])}, false);
+                writer.writeNext(new String[] {run, "partition", "Partition" + i, String.valueOf(i), "bytes", String.valueOf(partitionBytes[i])}, false);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        try (Writer writer = new BufferedWriter(new FileWriter(metricsFileFor(measurementFilePath, "jsonl"), true))) {
+            writer.write(toJson());
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    synchronized String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"run\":").append(quote(started.toString())).append(",\"stages\":[");
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            json.append(i == 0 ? "" : ",").append("{\"name\":").append(quote(stage.name))
+                    .append(",\"millis\":").append(format(stage.nanos / 1e6))
+                    .append(",\"peakHeapBytes\":").append(stage.peakHeap)
+                    .append(",\"counters\":{");
+            int counter = 0;
+            for (Map.Entry<String, Long> entry : stage.counters.entrySet()) {
+                json.append(counter++ == 0 ? "" : ",").append(quote(entry.getKey())).append(":{\"value\":").append(entry.getValue())
+                        .append(",\"perSecond\":").append(format(entry.getValue() / stage.seconds())).append('}');
+            }
+            json.append("}}");
+        }
+        json.append("],\"mclIterations\":[");
+        for (int i = 0; i < mclIterations.size(); i++) {
+            MclIteration iteration = mclIterations.get(i);
+            json.append(i == 0 ? "" : ",").append("{\"iteration\":").append(iteration.iteration)
+                    .append(",\"residual\":").append(format(iteration.residual))
+                    .append(",\"nonZeros\":").append(iteration.nonZeros)
+                    .append(",\"millis\":").append(format(iteration.nanos / 1e6)).append('}');
+        }
+        json.append("],\"partitions\":[");
+        for (int i = 0; i < partitionTriples.length; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"triples\":").append(partitionTriples[i])
+                    .append(",\"bytes\":").append(partitionBytes[i]).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String format(double value) {
+        // JSON has no infinity or NaN, e.g. a counter of a stage which took no measurable time
+        return Double.isFinite(value) ? String.valueOf(value) : "null";
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
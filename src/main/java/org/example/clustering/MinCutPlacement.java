@@ -0,0 +1,174 @@
+package org.example.clustering;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MinCutPlacement assigns all clusters to partitions so that as little
+ * co-occurrence weight as possible is cut between partitions while no
+ * partition grows beyond a balance limit. The MCL clusters are the coarse
+ * level of a two level partitioner:
+ * <ol>
+ * <li>the clusters are cut into pieces and packed by {@link PartitionBalancer},</li>
+ * <li>greedy refinement moves whole pieces to the partition they are connected
+ * to most, as long as the partition stays below the limit,</li>
+ * <li>the same refinement moves single predicates.</li>
+ * </ol>
+ * A move is only made if it lowers the cut weight, so every pass lowers it
+ * and the refinement ends after a few passes.
+ */
+final class MinCutPlacement {
+
+    private static final int MAX_PASSES = 16;
+
+    // co-occurrence graph of the predicate ids as symmetric adjacency lists
+    private final int[] offsets;
+    private final int[] neighbours;
+    private final long[] weights;
+    private final long[] triples;
+    private final int[] partitionOf;
+    private final long[] loads;
+    private final long limit;
+
+    private MinCutPlacement(WeightGraphFile graph, PredicateHistogram histogram, int[] partitionOf, long[] loads, long limit) {
+        int predicates = partitionOf.length;
+        offsets = new int[predicates + 1];
+        int edgeCount = graph.edgeCount();
+        for (int edge = 0; edge < edgeCount; edge++) {
+            if (isPlacedEdge(graph, edge, predicates)) {
+                offsets[graph.first(edge) + 1]++;
+                offsets[graph.second(edge) + 1]++;
+            }
+        }
+        for (int id = 0; id < predicates; id++) {
+            offsets[id + 1] += offsets[id];
+        }
+        neighbours = new int[offsets[predicates]];
+        weights = new long[offsets[predicates]];
+        int[] next = offsets.clone();
+        for (int edge = 0; edge < edgeCount; edge++) {
+            if (isPlacedEdge(graph, edge, predicates)) {
+                int first = graph.first(edge);
+                int second = graph.second(edge);
+                neighbours[next[first]] = second;
+                weights[next[first]++] = graph.weight(edge);
+                neighbours[next[second]] = first;
+                weights[next[second]++] = graph.weight(edge);
+            }
+        }
+        this.triples = histogram.triples;
+        this.partitionOf = partitionOf;
+        this.loads = loads;
+        this.limit = limit;
+    }
+
+    private static boolean isPlacedEdge(WeightGraphFile graph, int edge, int predicates) {
+        return graph.first(edge) != graph.second(edge) && graph.first(edge) < predicates && graph.second(edge) < predicates;
+    }
+
+    /**
+     * assign every predicate of the dictionary of the routing to a partition.
+     *
+     * @param clusters predicate ids of all clusters in cluster order
+     * @param tolerance a partition may hold (1 + tolerance) times the average triples of a partition
+     * @return the imbalance factor of the assignment
+     */
+    static double assign(PartitionRouting routing, List<List<Integer>> clusters, PredicateHistogram histogram,
+                         String graphWeightFile, int partitions, double tolerance) throws IOException {
+        List<PartitionBalancer.Piece> pieces = PartitionBalancer.pieces(clusters, histogram, partitions);
+        long[] loads = PartitionBalancer.pack(pieces, histogram, routing, partitions);
+        int[] partitionOf = new int[histogram.triples.length];
+        for (PartitionBalancer.Piece piece : pieces) {
+            for (int id : piece.predicates) {
+                partitionOf[id] = piece.partition;
+            }
+        }
+        long limit = (long) Math.ceil((1 + tolerance) * histogram.totalTriples() / partitions);
+
+        MinCutPlacement placement = new MinCutPlacement(WeightGraphFile.forGraphWeightFile(graphWeightFile), histogram, partitionOf, loads, limit);
+        long packedCut = placement.cutWeight();
+        List<List<Integer>> units = new ArrayList<>();
+        for (PartitionBalancer.Piece piece : pieces) {
+            units.add(piece.predicates);
+        }
+        placement.refine(units);
+        long clusterCut = placement.cutWeight();
+        units.clear();
+        for (int id = 0; id < partitionOf.length; id++) {
+            units.add(List.of(id));
+        }
+        placement.refine(units);
+        System.out.printf("Cut co-occurrence weight : %d packed, %d after moving clusters, %d after moving predicates\n",
+                packedCut, clusterCut, placement.cutWeight());
+
+        for (int id = 0; id < partitionOf.length; id++) {
+            routing.assign(id, partitionOf[id]);
+        }
+        return PartitionBalancer.imbalance(loads);
+    }
+
+    /**
+     * @return the weight of the edges between predicates of different partitions
+     */
+    long cutWeight() {
+        long cut = 0;
+        for (int id = 0; id < partitionOf.length; id++) {
+            for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+                if (neighbours[i] > id && partitionOf[neighbours[i]] != partitionOf[id]) {
+                    cut += weights[i];
+                }
+            }
+        }
+        return cut;
+    }
+
+    /**
+     * move units of predicates, which are all in the same partition, to the
+     * partition with the highest gain until no move lowers the cut weight.
+     */
+    private void refine(List<List<Integer>> units) {
+        int[] unitOf = new int[partitionOf.length];
+        for (int unit = 0; unit < units.size(); unit++) {
+            for (int id : units.get(unit)) {
+                unitOf[id] = unit;
+            }
+        }
+        long[] connection = new long[loads.length];
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            int moves = 0;
+            for (int unit = 0; unit < units.size(); unit++) {
+                List<Integer> predicates = units.get(unit);
+                int current = partitionOf[predicates.get(0)];
+                long unitTriples = 0;
+                Arrays.fill(connection, 0);
+                for (int id : predicates) {
+                    unitTriples += triples[id];
+                    for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+                        if (unitOf[neighbours[i]] != unit) {
+                            connection[partitionOf[neighbours[i]]] += weights[i];
+                        }
+                    }
+                }
+                int best = current;
+                for (int partition = 0; partition < loads.length; partition++) {
+                    if (connection[partition] > connection[best] && loads[partition] + unitTriples <= limit) {
+                        best = partition;
+                    }
+                }
+                if (best != current) {
+                    for (int id : predicates) {
+                        partitionOf[id] = best;
+                    }
+                    loads[current] -= unitTriples;
+                    loads[best] += unitTriples;
+                    moves++;
+                }
+            }
+            if (moves == 0) {
+                break;
+            }
+        }
+    }
+}
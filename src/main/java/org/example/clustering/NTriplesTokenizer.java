@@ -0,0 +1,162 @@
+package org.example.clustering;
+
+/**
+ * NTriplesTokenizer finds the terms of an N-Triples line directly in its
+ * UTF-8 bytes, nothing is decoded or allocated. Term spans include their
+ * delimiters, so the predicate span is "&lt;IRI&gt;" like the predicates of the
+ * {@link PredicateDictionary}.
+ * <p>
+ * Subjects are IRIs or blank nodes, objects are IRIs, blank nodes or
+ * literals with escapes and an optional language tag or datatype. Terms may
+ * be separated by spaces or tabs. An instance keeps the spans of the last
+ * line and is not thread-safe.
+ * <p>
+ * The distribution used to split the lines at single spaces. Lines separated
+ * by tabs or by several spaces were dropped with "Error splitting line" or,
+ * when a later term happened to start with '&lt;', routed by that term, mostly
+ * to the fallback partition. They are now routed by their predicate, so
+ * partitions of such datasets differ from the ones written before.
+ */
+final class NTriplesTokenizer {
+
+    int subjectStart;
+    int subjectEnd;
+    int predicateStart;
+    int predicateEnd;
+    int objectStart;
+    int objectEnd;
+
+    /**
+     * find subject and predicate of the line, the rest of the line is not checked.
+     *
+     * @return whether the line starts with a subject and an IRI predicate
+     */
+    boolean predicate(byte[] line, int from, int to) {
+        subjectStart = skipWhitespace(line, from, to);
+        subjectEnd = subjectEnd(line, subjectStart, to);
+        if (subjectEnd < 0) {
+            return false;
+        }
+        predicateStart = skipWhitespace(line, subjectEnd, to);
+        predicateEnd = iriEnd(line, predicateStart, to);
+        return predicateEnd >= 0;
+    }
+
+    /**
+     * find all three terms of the line.
+     *
+     * @return whether the line is a complete triple ending with '.', optionally followed by a comment
+     */
+    boolean triple(byte[] line, int from, int to) {
+        if (!predicate(line, from, to)) {
+            return false;
+        }
+        objectStart = skipWhitespace(line, predicateEnd, to);
+        objectEnd = objectEnd(line, objectStart, to);
+        if (objectEnd < 0) {
+            return false;
+        }
+        int end = skipWhitespace(line, objectEnd, to);
+        if (end == to || line[end] != '.') {
+            return false;
+        }
+        end = skipWhitespace(line, end + 1, to);
+        return end == to || line[end] == '#';
+    }
+
+    private static int skipWhitespace(byte[] line, int i, int to) {
+        while (i < to && (line[i] == ' ' || line[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int subjectEnd(byte[] line, int i, int to) {
+        if (i < to && line[i] == '<') {
+            return iriEnd(line, i, to);
+        }
+        return blankNodeEnd(line, i, to);
+    }
+
+    private static int objectEnd(byte[] line, int i, int to) {
+        if (i >= to) {
+            return -1;
+        }
+        if (line[i] == '<') {
+            return iriEnd(line, i, to);
+        }
+        if (line[i] == '"') {
+            return literalEnd(line, i, to);
+        }
+        int end = blankNodeEnd(line, i, to);
+        // a label cannot end with '.', so a '.' directly after it ends the triple
+        while (end > i + 2 && line[end - 1] == '.') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * @return position after the '>' of the IRI starting at i, or -1
+     */
+    private static int iriEnd(byte[] line, int i, int to) {
+        if (i >= to || line[i] != '<') {
+            return -1;
+        }
+        for (int j = i + 1; j < to; j++) {
+            byte b = line[j];
+            if (b == '>') {
+                return j + 1;
+            }
+            if (b == ' ' || b == '\t' || b == '<' || b == '"') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return position after the label of the blank node "_:label" starting at i, or -1
+     */
+    private static int blankNodeEnd(byte[] line, int i, int to) {
+        if (i + 2 >= to || line[i] != '_' || line[i + 1] != ':') {
+            return -1;
+        }
+        int j = i + 2;
+        while (j < to && line[j] != ' ' && line[j] != '\t' && line[j] != '<' && line[j] != '"') {
+            j++;
+        }
+        return j;
+    }
+
+    /**
+     * @return position after the literal starting with '"' at i including a
+     *         language tag or datatype, or -1
+     */
+    private static int literalEnd(byte[] line, int i, int to) {
+        int j = i + 1;
+        while (j < to && line[j] != '"') {
+            // an escaped character may be a quote
+            j += line[j] == '\\' ? 2 : 1;
+        }
+        if (j >= to) {
+            return -1;
+        }
+        j++;
+        if (j < to && line[j] == '@') {
+            int tagStart = ++j;
+            while (j < to && (isLetterOrDigit(line[j]) || (line[j] == '-' && j > tagStart))) {
+                j++;
+            }
+            return j > tagStart ? j : -1;
+        }
+        if (j + 1 < to && line[j] == '^' && line[j + 1] == '^') {
+            return iriEnd(line, j + 2, to);
+        }
+        return j;
+    }
+
+    private static boolean isLetterOrDigit(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9');
+    }
+}
@@ -10,32 +10,53 @@ public class PCM {
         measurement.setQuerySetPath(Paths.get(PathConstants.QUERIES_PATH).toAbsolutePath().toString());
         measurement.setDataSetPath(Paths.get(PathConstants.DATASET_PATH).toAbsolutePath().toString());
 
-        cluster(PathConstants.PARTITION_OUTPUT_FOLDER, PathConstants.QUERIES_PATH, PathConstants.GRAPH_WEIGHT_FILE, PathConstants.PREDICATE_FILE, PathConstants.DATASET_PATH, PathConstants.TOTAL_PARTITIONS, PathConstants.CLUSTER_FILE, measurement);
+        cluster(PathConstants.PARTITION_OUTPUT_FOLDER, PathConstants.QUERIES_PATH, PathConstants.GRAPH_WEIGHT_FILE, PathConstants.PREDICATE_FILE, PathConstants.DATASET_PATH, PathConstants.TOTAL_PARTITIONS, PathConstants.CLUSTER_FILE, measurement, PathConstants.SCAN_THREADS);
 
-        measurement.setPartitionFileSizes();
         measurement.writeToFile(false);
 
     }
 
     public static void cluster(String partitionOutputFolder, String queriesPath, String graphWeightFile, String predicateFile, String datasetPath, int totalPartitions, String clusterFile, Measurement measurement) throws IOException {
+        cluster(partitionOutputFolder, queriesPath, graphWeightFile, predicateFile, datasetPath, totalPartitions, clusterFile, measurement, 1);
+    }
+
+    public static void cluster(String partitionOutputFolder, String queriesPath, String graphWeightFile, String predicateFile, String datasetPath, int totalPartitions, String clusterFile, Measurement measurement, int scanThreads) throws IOException {
 
         // clean up should be done before starting the measurement
         PartitionGenerator.cleanExistingPartitionFiles(partitionOutputFolder);
 
+        Metrics metrics = measurement.getMetrics();
+        metrics.activate();
+        try (Metrics.Stage stage = Metrics.stage("cluster")) {
+            PartitionCounts counts = clusterStages(partitionOutputFolder, queriesPath, graphWeightFile, predicateFile, datasetPath, totalPartitions, clusterFile, measurement, scanThreads);
+            stage.count("triples", counts.totalTriples());
+        } finally {
+            metrics.deactivate();
+        }
+    }
+
+    private static PartitionCounts clusterStages(String partitionOutputFolder, String queriesPath, String graphWeightFile, String predicateFile, String datasetPath, int totalPartitions, String clusterFile, Measurement measurement, int scanThreads) throws IOException {
         long start = System.currentTimeMillis();
-        WeightGeneratorFromTestQueries.generateWeights(queriesPath, graphWeightFile, predicateFile, measurement);
+        PredicateDictionary dictionary = WeightGeneratorFromTestQueries.generateWeights(queriesPath, graphWeightFile, predicateFile, measurement);
 
-        PartitionGenerator.getPredicateEncodings(predicateFile);
+        PartitionGenerator.setPredicateDictionary(predicateFile, dictionary);
         PartitionGenerator.generatePartitionFiles(partitionOutputFolder, totalPartitions);
 
-        PartitionGenerator.markovDistribution(partitionOutputFolder, datasetPath, queriesPath, totalPartitions, graphWeightFile, clusterFile, predicateFile);
+        PartitionCounts counts;
+        if (PathConstants.DISTRIBUTION == PartitionGenerator.Distribution.GREEDY) {
+            counts = PartitionGenerator.greedyDistribution(partitionOutputFolder, datasetPath, queriesPath, totalPartitions, graphWeightFile, clusterFile, predicateFile, PathConstants.PREDICATE_FILES, PathConstants.PARTITION_SIZE);
+        } else {
+            counts = PartitionGenerator.markovDistribution(partitionOutputFolder, datasetPath, queriesPath, totalPartitions, graphWeightFile, clusterFile, predicateFile,
+                    DistributionParameters.fromPathConstants().scanThreads(scanThreads));
+        }
         measurement.setPartitionTime(System.currentTimeMillis() - start);
-
+        measurement.setPartitionCounts(counts);
+        return counts;
     }
 
     public static void clusterWithoutPartitioning(String partitionOutputFolder, String queriesPath, String graphWeightFile, String predicateFile, int totalPartitions, String clusterFile) throws IOException {
-        WeightGeneratorFromTestQueries.generateWeights(queriesPath, graphWeightFile, predicateFile, null);
-        PartitionGenerator.getPredicateEncodings(predicateFile);
+        PredicateDictionary dictionary = WeightGeneratorFromTestQueries.generateWeights(queriesPath, graphWeightFile, predicateFile, null);
+        PartitionGenerator.setPredicateDictionary(predicateFile, dictionary);
         MarkovClustering.findClusters(graphWeightFile, clusterFile);
     }
 }
@@ -0,0 +1,338 @@
+package org.example.clustering;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * ParallelDatasetScanner reads a line based dataset (e.g. N-Triples) in large
+ * chunks that always end on a line break, so every chunk can be processed
+ * independently. A fixed number of worker threads pull chunks one after the
+ * other, read them with a positional read into a private buffer and hand every
+ * line of the chunk to their own {@link LineHandler}.
+ * <p>
+ * Lines are split at '\n', '\r' and "\r\n" like {@link java.io.BufferedReader#readLine()}
+ * and are trimmed like {@link String#trim()} before they are handed over. The
+ * order in which chunks are processed is not defined.
+ * <p>
+ * Datasets ending with ".gz" are inflated while they are read. Files made of
+ * {@link BlockGzip} blocks (e.g. written by bgzip) are inflated in parallel,
+ * other gzip files by the reading thread. The reading thread cuts the
+ * inflated data into line-aligned chunks for the workers.
+ */
+public class ParallelDatasetScanner {
+
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+    // compressed bytes inflated at once, the chunks of a gzip dataset are several times larger
+    static final int DEFAULT_COMPRESSED_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final ByteBuffer END_OF_DATASET = ByteBuffer.allocate(0);
+
+    private ParallelDatasetScanner() {}
+
+    /**
+     * Receives the lines of the chunks processed by one worker thread. An
+     * instance is never shared between threads.
+     */
+    interface LineHandler {
+
+        /**
+         * @param chunk buffer holding the current chunk
+         * @param from first byte of the trimmed line
+         * @param to end (exclusive) of the trimmed line
+         */
+        void handleLine(byte[] chunk, int from, int to) throws IOException;
+
+        /**
+         * called after the last line of every chunk, the chunk buffer is reused afterwards.
+         */
+        void endOfChunk() throws IOException;
+    }
+
+    /**
+     * scan the dataset with the given number of worker threads.
+     *
+     * @param datasetPath file to scan
+     * @param threads number of worker threads
+     * @param handlerFactory creates one handler per worker thread
+     * @return number of lines in the dataset
+     */
+    static long scan(String datasetPath, int threads, Supplier<? extends LineHandler> handlerFactory) throws IOException {
+        if (isCompressed(datasetPath)) {
+            return scan(datasetPath, threads, DEFAULT_COMPRESSED_CHUNK_SIZE, handlerFactory);
+        }
+        return scan(datasetPath, threads, DEFAULT_CHUNK_SIZE, handlerFactory);
+    }
+
+    /**
+     * @param chunkSize bytes of the file read at once, compressed bytes for a gzip dataset
+     */
+    static long scan(String datasetPath, int threads, int chunkSize, Supplier<? extends LineHandler> handlerFactory) throws IOException {
+        if (isCompressed(datasetPath)) {
+            return scanCompressed(datasetPath, threads, chunkSize, handlerFactory);
+        }
+        try (FileChannel channel = FileChannel.open(Path.of(datasetPath), StandardOpenOption.READ)) {
+            List<long[]> chunks = lineAlignedChunks(channel, chunkSize);
+            AtomicInteger nextChunk = new AtomicInteger();
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Long>> workers = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    workers.add(pool.submit(() -> {
+                        LineHandler handler = handlerFactory.get();
+                        byte[] buffer = new byte[0];
+                        long lines = 0;
+                        int chunk;
+                        while ((chunk = nextChunk.getAndIncrement()) < chunks.size()) {
+                            long start = chunks.get(chunk)[0];
+                            int length = (int) (chunks.get(chunk)[1] - start);
+                            if (buffer.length < length) {
+                                buffer = new byte[length];
+                            }
+                            readFully(channel, buffer, length, start);
+                            lines += splitLines(buffer, length, handler);
+                            handler.endOfChunk();
+                        }
+                        return lines;
+                    }));
+                }
+
+                long lines = 0;
+                for (Future<Long> worker : workers) {
+                    lines += worker.get();
+                }
+                return lines;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while scanning " + datasetPath, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    static boolean isCompressed(String datasetPath) {
+        return datasetPath.endsWith(".gz");
+    }
+
+    private static long scanCompressed(String datasetPath, int threads, int chunkSize, Supplier<? extends LineHandler> handlerFactory) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(datasetPath), StandardOpenOption.READ)) {
+            // chunks are handed to the workers in order, a single worker keeps the dataset order
+            BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(2 * threads);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            ExecutorService inflaters = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Long>> workers = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    workers.add(pool.submit(() -> {
+                        LineHandler handler = handlerFactory.get();
+                        long lines = 0;
+                        ByteBuffer chunk;
+                        while ((chunk = chunks.take()) != END_OF_DATASET) {
+                            lines += splitLines(chunk.array(), chunk.limit(), handler);
+                            handler.endOfChunk();
+                        }
+                        return lines;
+                    }));
+                }
+
+                if (BlockGzip.isBlockGzip(channel)) {
+                    BlockGzip.BlockReader reader = new BlockGzip.BlockReader(channel, inflaters, chunkSize, 2 * threads);
+                    cutIntoLines(reader::next, chunks, workers);
+                } else {
+                    InputStream in = new GZIPInputStream(Channels.newInputStream(channel), 1 << 16);
+                    int inflatedSize = Math.max(chunkSize, 1 << 16) * 4;
+                    cutIntoLines(() -> {
+                        byte[] inflated = in.readNBytes(inflatedSize);
+                        return inflated.length == 0 ? null : inflated;
+                    }, chunks, workers);
+                }
+                for (int i = 0; i < threads; i++) {
+                    putChunk(chunks, END_OF_DATASET, workers);
+                }
+
+                long lines = 0;
+                for (Future<Long> worker : workers) {
+                    lines += worker.get();
+                }
+                return lines;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while scanning " + datasetPath, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+                inflaters.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * source of the inflated data of a dataset in file order.
+     */
+    private interface InflatedData {
+
+        /**
+         * @return next part of the data, or null after the last one
+         */
+        byte[] next() throws IOException;
+    }
+
+    /**
+     * put the data into the queue in chunks ending after a '\n', the rest of a
+     * part is carried over to the chunk of the next one.
+     */
+    private static void cutIntoLines(InflatedData data, BlockingQueue<ByteBuffer> chunks, List<Future<Long>> workers)
+            throws IOException, InterruptedException, ExecutionException {
+        byte[] carry = new byte[0];
+        byte[] part;
+        while ((part = data.next()) != null) {
+            byte[] chunk = new byte[carry.length + part.length];
+            System.arraycopy(carry, 0, chunk, 0, carry.length);
+            System.arraycopy(part, 0, chunk, carry.length, part.length);
+            int end = chunk.length;
+            while (end > 0 && chunk[end - 1] != '\n') {
+                end--;
+            }
+            carry = Arrays.copyOfRange(chunk, end, chunk.length);
+            if (end > 0) {
+                putChunk(chunks, ByteBuffer.wrap(chunk, 0, end), workers);
+            }
+        }
+        if (carry.length > 0) {
+            putChunk(chunks, ByteBuffer.wrap(carry), workers);
+        }
+    }
+
+    private static void putChunk(BlockingQueue<ByteBuffer> chunks, ByteBuffer chunk, List<Future<Long>> workers)
+            throws InterruptedException, ExecutionException {
+        while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+            // stop reading when a worker failed instead of waiting for it forever
+            for (Future<Long> worker : workers) {
+                if (worker.isDone()) {
+                    worker.get();
+                }
+            }
+        }
+    }
+
+    /**
+     * cut the file into chunks of roughly chunkSize bytes, every chunk except
+     * the last one ends directly after a '\n'.
+     *
+     * @return list of [start, end) byte offsets
+     */
+    static List<long[]> lineAlignedChunks(FileChannel channel, int chunkSize) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        long size = channel.size();
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + chunkSize, size);
+            if (end < size) {
+                end = nextLineStart(channel, end - 1, probe);
+            }
+            if (end - start > Integer.MAX_VALUE - 8) {
+                throw new IOException("Line starting after offset " + start + " is too long to be scanned");
+            }
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * @return position after the first '\n' found at or after position, or the size of the file
+     */
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer probe) throws IOException {
+        long size = channel.size();
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    static void readFully(FileChannel channel, byte[] buffer, int length, long position) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position + target.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at offset " + (position + target.position()));
+            }
+        }
+    }
+
+    /**
+     * hand every line of buffer[0, length) to the handler.
+     *
+     * @return number of lines
+     */
+    static long splitLines(byte[] buffer, int length, LineHandler handler) throws IOException {
+        long lines = 0;
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = buffer[i];
+            if (b == '\n' || b == '\r') {
+                handleTrimmed(buffer, lineStart, i, handler);
+                lines++;
+                if (b == '\r' && i + 1 < length && buffer[i + 1] == '\n') {
+                    i++;
+                }
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < length) {
+            handleTrimmed(buffer, lineStart, length, handler);
+            lines++;
+        }
+        return lines;
+    }
+
+    private static void handleTrimmed(byte[] buffer, int from, int to, LineHandler handler) throws IOException {
+        // same as String.trim(): everything up to and including ' ' is whitespace
+        while (from < to && (buffer[from] & 0xff) <= ' ') {
+            from++;
+        }
+        while (to > from && (buffer[to - 1] & 0xff) <= ' ') {
+            to--;
+        }
+        handler.handleLine(buffer, from, to);
+    }
+}
@@ -0,0 +1,168 @@
+package org.example.clustering;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * PartitionBalancer assigns the clusters of predicates to partitions by the
+ * number of their triples. The clusters are packed largest first onto the
+ * partition with the fewest triples so far (LPT scheduling). A cluster with
+ * more triples than the average partition is cut into pieces along the
+ * cluster order first, so a single cluster can not decide the size of the
+ * largest partition. Predicates which are not in any cluster are packed one
+ * by one, triples of predicates unknown to the dictionary are preloaded onto
+ * the fallback partition of the routing, or evenly onto all partitions if the
+ * routing spreads them by subject.
+ */
+final class PartitionBalancer {
+
+    private PartitionBalancer() {
+    }
+
+    /**
+     * assign every predicate of the dictionary of the routing to a partition.
+     *
+     * @param clusters predicate ids of the clusters in cluster order
+     * @param partitions number of partitions, including the fallback partition
+     * @return the imbalance factor of the assignment, the triples of the largest
+     *         partition divided by the average triples of a partition
+     */
+    static double assign(PartitionRouting routing, List<List<Integer>> clusters, PredicateHistogram histogram, int partitions) {
+        List<Piece> pieces = pieces(clusters, histogram, partitions);
+        long[] loads = pack(pieces, histogram, routing, partitions);
+        for (Piece piece : pieces) {
+            for (int id : piece.predicates) {
+                routing.assign(id, piece.partition);
+            }
+        }
+        return imbalance(loads);
+    }
+
+    /**
+     * @return the clusters cut into pieces of at most the average partition size
+     *         (or one predicate), followed by the predicates in no cluster
+     */
+    static List<Piece> pieces(List<List<Integer>> clusters, PredicateHistogram histogram, int partitions) {
+        long target = (histogram.totalTriples() + partitions - 1) / partitions;
+
+        boolean[] clustered = new boolean[histogram.triples.length];
+        List<Piece> pieces = new ArrayList<>();
+        for (List<Integer> cluster : clusters) {
+            Piece piece = new Piece();
+            for (int id : cluster) {
+                if (clustered[id]) {
+                    continue;
+                }
+                clustered[id] = true;
+                if (!piece.predicates.isEmpty() && piece.triples + histogram.triples[id] > target) {
+                    pieces.add(piece);
+                    piece = new Piece();
+                }
+                piece.add(id, histogram.triples[id]);
+            }
+            if (!piece.predicates.isEmpty()) {
+                pieces.add(piece);
+            }
+        }
+        for (int id = 0; id < clustered.length; id++) {
+            if (!clustered[id]) {
+                Piece piece = new Piece();
+                piece.add(id, histogram.triples[id]);
+                pieces.add(piece);
+            }
+        }
+        return pieces;
+    }
+
+    /**
+     * set the partition of every piece, largest piece first onto the partition with the fewest triples.
+     *
+     * @return triples of every partition
+     */
+    static long[] pack(List<Piece> pieces, PredicateHistogram histogram, PartitionRouting routing, int partitions) {
+        List<Piece> largestFirst = new ArrayList<>(pieces);
+        // stable, pieces with the same size keep the cluster order
+        largestFirst.sort(Comparator.comparingLong((Piece piece) -> piece.triples).reversed());
+
+        long[] loads = new long[partitions];
+        if (routing.spreadsBySubject()) {
+            for (int partition = 0; partition < partitions; partition++) {
+                loads[partition] = histogram.otherTriples / partitions + (partition < histogram.otherTriples % partitions ? 1 : 0);
+            }
+        } else {
+            loads[routing.fallbackPartition()] = histogram.otherTriples;
+        }
+        for (Piece piece : largestFirst) {
+            piece.partition = lightest(loads);
+            loads[piece.partition] += piece.triples;
+        }
+        return loads;
+    }
+
+    /**
+     * assign the predicates which have no partition yet, largest first, to the partition
+     * with the fewest triples, like a round robin which skips the partitions that are
+     * ahead. The partitions start with the triples of the predicates assigned before.
+     *
+     * @return the imbalance factor of the assignment
+     */
+    static double assignRemaining(PartitionRouting routing, PredicateHistogram histogram, int partitions) {
+        long[] loads = new long[partitions];
+        List<Integer> remaining = new ArrayList<>();
+        for (int id = 0; id < histogram.triples.length; id++) {
+            int partition = routing.assignedPartition(id);
+            if (partition < 0) {
+                remaining.add(id);
+            } else {
+                loads[partition] += histogram.triples[id];
+            }
+        }
+        loads[routing.fallbackPartition()] += histogram.otherTriples;
+        remaining.sort(Comparator.comparingLong((Integer id) -> histogram.triples[id]).reversed());
+        for (int id : remaining) {
+            int partition = lightest(loads);
+            routing.assign(id, partition);
+            loads[partition] += histogram.triples[id];
+        }
+        return imbalance(loads);
+    }
+
+    private static int lightest(long[] loads) {
+        int lightest = 0;
+        for (int partition = 1; partition < loads.length; partition++) {
+            if (loads[partition] < loads[lightest]) {
+                lightest = partition;
+            }
+        }
+        return lightest;
+    }
+
+    /**
+     * @return triples of the largest partition divided by the average triples of a partition, 1 if there are none
+     */
+    static double imbalance(long[] loads) {
+        long total = 0;
+        long max = 0;
+        for (long load : loads) {
+            total += load;
+            max = Math.max(max, load);
+        }
+        return total == 0 ? 1.0 : max * (double) loads.length / total;
+    }
+
+    /**
+     * predicates of a cluster which are placed together.
+     */
+    static class Piece {
+
+        final List<Integer> predicates = new ArrayList<>();
+        long triples;
+        int partition;
+
+        void add(int id, long predicateTriples) {
+            predicates.add(id);
+            triples += predicateTriples;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package org.example.clustering;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+
+/**
+ * PartitionBatch partitions one dataset for several variants at once, every
+ * variant has its own query log, number of partitions and assignment. The
+ * variants are listed in a job spec CSV file, one per line:
+ * <p>
+ * {@code partition output folder,query log,partitions[,assignment[,fallback]]}
+ * <p>
+ * The weights and clusters are computed once per query log and the routing of
+ * every variant is planned before the dataset is read. Then the dataset is read
+ * once and every line is routed into the partitions of all variants, instead of
+ * reading the dataset again for every variant. Variants which balance their
+ * partitions share one additional pass counting the triples of all predicates.
+ * <p>
+ * Every variant writes the same partition files and measurement row as a separate
+ * run of {@link PCM} with its query log, number of partitions and assignment. Its
+ * partition time includes the shared weight generation, counting and distribution.
+ */
+public class PartitionBatch {
+
+    /**
+     * one line of the job spec.
+     */
+    static class Variant {
+
+        final String partitionOutputFolder;
+        final String queriesPath;
+        final int totalPartitions;
+        final PartitionGenerator.Assignment assignment;
+        final PartitionGenerator.Fallback fallback;
+
+        Workload workload;
+        Measurement measurement;
+        PartitionRouting routing;
+        long planMillis;
+
+        Variant(String partitionOutputFolder, String queriesPath, int totalPartitions, PartitionGenerator.Assignment assignment, PartitionGenerator.Fallback fallback) {
+            this.partitionOutputFolder = partitionOutputFolder;
+            this.queriesPath = queriesPath;
+            this.totalPartitions = totalPartitions;
+            this.assignment = assignment;
+            this.fallback = fallback;
+        }
+    }
+
+    /**
+     * weighted graph and clusters of one query log, shared by its variants.
+     */
+    static class Workload {
+
+        final String graphWeightFile;
+        final String predicateFile;
+        final String clusterFile;
+        PredicateDictionary dictionary;
+        long querySetSize;
+        long millis;
+
+        Workload(String folder) {
+            graphWeightFile = folder + "/graphweight.txt";
+            predicateFile = folder + "/predicateEncoding.txt";
+            clusterFile = folder + "/clusters.txt";
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String jobSpecFile = args[0];
+        String workFolder = args.length > 1 ? args[1] : PathConstants.PATH + "pcm/batch";
+        String datasetPath = args.length > 2 ? args[2] : PathConstants.DATASET_PATH;
+        String measurementFile = args.length > 3 ? args[3] : PathConstants.MEASUREMENT_PATH;
+
+        run(readJobSpec(jobSpecFile), workFolder, datasetPath, measurementFile, PathConstants.SCAN_THREADS);
+    }
+
+    /**
+     * @return the variants of the job spec, lines starting with # and a header line are skipped
+     */
+    static List<Variant> readJobSpec(String jobSpecFile) throws IOException {
+        List<Variant> variants = new ArrayList<>();
+        try (CSVReader reader = new CSVReader(new FileReader(jobSpecFile))) {
+            String[] fields;
+            while ((fields = reader.readNext()) != null) {
+                if (fields.length == 0 || fields[0].isBlank() || fields[0].startsWith("#")) {
+                    continue;
+                }
+                if (fields.length < 3) {
+                    throw new IllegalArgumentException("Expected output folder, query log and partitions in line " + reader.getLinesRead() + " of " + jobSpecFile);
+                }
+                int totalPartitions;
+                try {
+                    totalPartitions = Integer.parseInt(fields[2].trim());
+                } catch (NumberFormatException e) {
+                    if (variants.isEmpty()) {
+                        // header line
+                        continue;
+                    }
+                    throw new IllegalArgumentException("Invalid number of partitions in line " + reader.getLinesRead() + " of " + jobSpecFile, e);
+                }
+                PartitionGenerator.Assignment assignment = fields.length > 3 && !fields[3].isBlank()
+                        ? PartitionGenerator.Assignment.valueOf(fields[3].trim()) : PathConstants.PARTITION_ASSIGNMENT;
+                PartitionGenerator.Fallback fallback = fields.length > 4 && !fields[4].isBlank()
+                        ? PartitionGenerator.Fallback.valueOf(fields[4].trim()) : PathConstants.FALLBACK;
+                variants.add(new Variant(fields[0].trim(), fields[1].trim(), totalPartitions, assignment, fallback));
+            }
+        } catch (CsvValidationException e) {
+            throw new IOException("Invalid job spec " + jobSpecFile, e);
+        }
+        return variants;
+    }
+
+    /**
+     * partition the dataset for all variants and append their measurement rows to the measurement file.
+     *
+     * @param workFolder the weighted graph, predicate and cluster files of every query log are written to workload{i} in it
+     */
+    static void run(List<Variant> variants, String workFolder, String datasetPath, String measurementFile, int scanThreads) throws IOException {
+        if (variants.isEmpty()) {
+            System.out.println("No variants to partition");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Metrics metrics = new Metrics();
+        metrics.activate();
+        try (Metrics.Stage stage = Metrics.stage("batch")) {
+            for (Variant variant : variants) {
+                PartitionGenerator.cleanExistingPartitionFiles(variant.partitionOutputFolder);
+                Files.createDirectories(Path.of(variant.partitionOutputFolder));
+                variant.measurement = new Measurement(measurementFile);
+                variant.measurement.setQuerySetPath(Paths.get(variant.queriesPath).toAbsolutePath().toString());
+                variant.measurement.setDataSetPath(Paths.get(datasetPath).toAbsolutePath().toString());
+            }
+
+            cluster(variants, workFolder);
+
+            long histogramMillis = 0;
+            PredicateHistogram histogram = null;
+            if (variants.stream().anyMatch(variant -> PartitionGenerator.needsHistogram(variant.assignment, variant.fallback))) {
+                long histogramStart = System.currentTimeMillis();
+                try (Metrics.Stage histogramStage = Metrics.stage("histogram")) {
+                    // all predicates are counted by name, every variant takes the ones of its dictionary
+                    histogram = PredicateHistogram.count(datasetPath, new PartitionRouting(new PredicateDictionary(), 0), Math.max(1, scanThreads));
+                    histogramStage.count("triples", histogram.totalTriples());
+                }
+                histogramMillis = System.currentTimeMillis() - histogramStart;
+            }
+
+            for (Variant variant : variants) {
+                long planStart = System.currentTimeMillis();
+                PartitionGenerator.generatePartitionFiles(variant.partitionOutputFolder, variant.totalPartitions);
+                PredicateDictionary dictionary = variant.workload.dictionary;
+                PredicateHistogram variantHistogram = PartitionGenerator.needsHistogram(variant.assignment, variant.fallback) ? histogram.forDictionary(dictionary) : null;
+                variant.routing = PartitionGenerator.planRouting(dictionary, variantHistogram, variant.totalPartitions,
+                        variant.workload.graphWeightFile, variant.workload.clusterFile, variant.assignment, variant.fallback);
+                variant.planMillis = System.currentTimeMillis() - planStart;
+            }
+
+            long distributionStart = System.currentTimeMillis();
+            List<PartitionCounts> counts = distribute(variants, datasetPath, scanThreads);
+            stage.count("variants", variants.size());
+            long distributionMillis = System.currentTimeMillis() - distributionStart;
+
+            for (int i = 0; i < variants.size(); i++) {
+                Variant variant = variants.get(i);
+                System.out.printf("Variant %d : %s\n", i, variant.partitionOutputFolder);
+                PartitionGenerator.printDistribution(counts.get(i), datasetPath, variant.queriesPath);
+                variant.measurement.setPartitionTime(variant.workload.millis + histogramMillis + variant.planMillis + distributionMillis);
+                variant.measurement.setPartitionCounts(counts.get(i));
+                variant.measurement.writeToFile(false);
+            }
+        } finally {
+            metrics.deactivate();
+        }
+        metrics.writeNextTo(measurementFile);
+        System.out.printf("Partitioned %d variants in %d ms\n", variants.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * generate the weighted graph and find the clusters of every distinct query log.
+     */
+    private static void cluster(List<Variant> variants, String workFolder) throws IOException {
+        Map<String, Workload> workloads = new LinkedHashMap<>();
+        for (Variant variant : variants) {
+            Workload workload = workloads.get(variant.queriesPath);
+            if (workload == null) {
+                long start = System.currentTimeMillis();
+                String folder = workFolder + "/workload" + workloads.size();
+                Files.createDirectories(Path.of(folder));
+                workload = new Workload(folder);
+                workload.dictionary = WeightGeneratorFromTestQueries.generateWeights(variant.queriesPath, workload.graphWeightFile, workload.predicateFile, variant.measurement);
+                workload.querySetSize = variant.measurement.getQuerySetSize();
+                MarkovClustering.findClusters(workload.graphWeightFile, workload.clusterFile);
+                workload.millis = System.currentTimeMillis() - start;
+                workloads.put(variant.queriesPath, workload);
+            }
+            variant.workload = workload;
+            variant.measurement.setQuerySetSize(workload.querySetSize);
+        }
+    }
+
+    private static List<PartitionCounts> distribute(List<Variant> variants, String datasetPath, int scanThreads) throws IOException {
+        List<String> partitionOutputFolders = new ArrayList<>();
+        int[] totalPartitions = new int[variants.size()];
+        List<PartitionRouting> routings = new ArrayList<>();
+        for (int i = 0; i < variants.size(); i++) {
+            partitionOutputFolders.add(variants.get(i).partitionOutputFolder);
+            totalPartitions[i] = variants.get(i).totalPartitions;
+            routings.add(variants.get(i).routing);
+        }
+        try (Metrics.Stage stage = Metrics.stage("distribution")) {
+            List<PartitionCounts> counts = PartitionGenerator.distribute(datasetPath, partitionOutputFolders, totalPartitions, routings,
+                    Math.max(1, scanThreads), PathConstants.COMPRESS_PARTITIONS);
+            stage.count("lines", counts.isEmpty() ? 0 : counts.get(0).datasetLines);
+            for (PartitionCounts variantCounts : counts) {
+                stage.count("triples", variantCounts.totalTriples());
+                stage.count("bytes", variantCounts.totalBytes());
+            }
+            return counts;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.example.clustering;
+
+/**
+ * PartitionCounts are the numbers of triples and bytes written to every
+ * partition file and the number of lines of the dataset, counted while the
+ * dataset is read and the partitions are written.
+ */
+class PartitionCounts {
+
+    final long[] triples;
+    final long[] bytes;
+    long datasetLines;
+
+    PartitionCounts(int partitions) {
+        triples = new long[partitions];
+        bytes = new long[partitions];
+    }
+
+    void add(int partition, long lineBytes) {
+        triples[partition]++;
+        bytes[partition] += lineBytes;
+    }
+
+    /**
+     * add the triples and bytes counted by another writer of the same partitions.
+     */
+    void merge(PartitionCounts other) {
+        for (int i = 0; i < triples.length; i++) {
+            triples[i] += other.triples[i];
+            bytes[i] += other.bytes[i];
+        }
+    }
+
+    long totalTriples() {
+        long total = 0;
+        for (long count : triples) {
+            total += count;
+        }
+        return total;
+    }
+
+    long totalBytes() {
+        long total = 0;
+        for (long count : bytes) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return triples of the largest partition divided by the average triples of a partition
+     */
+    double imbalance() {
+        return PartitionBalancer.imbalance(triples);
+    }
+}
@@ -1,30 +1,25 @@
 package org.example.clustering;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.rdf.model.Statement;
-import org.apache.jena.rdf.model.StmtIterator;
-import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
 
 /**
  * allocate some obtained clusters of triples to partitions
@@ -32,20 +27,20 @@ import org.apache.jena.riot.RDFDataMgr;
 public class PartitionGenerator {
 
 	private static final List<Integer> partitionFileSizes = new ArrayList<>();
-	private static final List<String> predicateEncodings = new ArrayList<>();
-	private static final Map<String, String> predicateFileNames = new HashMap<>();
+	private static PredicateDictionary predicateDictionary;
+	private static String predicateDictionaryFile;
  
 	
 	public static void main(String[] args) throws IOException {
 
 		cleanExistingPartitionFiles(PathConstants.PARTITION_OUTPUT_FOLDER);
 
-		WeightGeneratorFromTestQueries.generateWeights(PathConstants.QUERIES_PATH,PathConstants.GRAPH_WEIGHT_FILE,PathConstants.PREDICATE_FILE, null);
+		PredicateDictionary dictionary = WeightGeneratorFromTestQueries.generateWeights(PathConstants.QUERIES_PATH,PathConstants.GRAPH_WEIGHT_FILE,PathConstants.PREDICATE_FILE, null);
 
-		getPredicateEncodings(PathConstants.PREDICATE_FILE);
+		setPredicateDictionary(PathConstants.PREDICATE_FILE, dictionary);
 		generatePartitionFiles(PathConstants.PARTITION_OUTPUT_FOLDER, PathConstants.TOTAL_PARTITIONS);
 
-		markovDistribution(PathConstants.PARTITION_OUTPUT_FOLDER, PathConstants.DATASET_PATH, PathConstants.QUERIES_PATH, PathConstants.TOTAL_PARTITIONS, PathConstants.GRAPH_WEIGHT_FILE, PathConstants.CLUSTER_FILE, PathConstants.PREDICATE_FILE);
+		markovDistribution(PathConstants.PARTITION_OUTPUT_FOLDER, PathConstants.DATASET_PATH, PathConstants.QUERIES_PATH, PathConstants.TOTAL_PARTITIONS, PathConstants.GRAPH_WEIGHT_FILE, PathConstants.CLUSTER_FILE, PathConstants.PREDICATE_FILE, DistributionParameters.fromPathConstants());
 
 //		greedyDistribution(cluster);
 
@@ -54,264 +49,595 @@ public class PartitionGenerator {
 
 	}
 
-	static void markovDistribution(String partitionOutputFolder, String datasetPath, String queriesPath, int totalPartitions, String graphWeightFile, String clusterFile, String predicateFile) throws IOException {
+	/**
+	 * how the predicates of the clusters are assigned to the partitions.
+	 */
+	enum Assignment {
+		/**
+		 * the predicates of the first cluster are split into equally many predicates per
+		 * partition, all other predicates go to the last partition
+		 */
+		PREDICATE_COUNT,
+		/**
+		 * the clusters are packed onto the partitions by the number of their triples,
+		 * counted in an additional pass over the dataset, see {@link PartitionBalancer}
+		 */
+		BALANCED,
+		/**
+		 * all clusters are placed to cut as little co-occurrence weight as possible between
+		 * the partitions while they stay balanced, see {@link MinCutPlacement}
+		 */
+		MIN_CUT
+	}
+
+	/**
+	 * where the triples of the predicates go which are in no cluster or do not occur in the query log.
+	 */
+	enum Fallback {
+		/**
+		 * all of them go to the last partition
+		 */
+		LAST_PARTITION,
+		/**
+		 * the predicates are counted in an additional pass over the dataset and go one by one,
+		 * largest first, to the partition with the fewest triples
+		 */
+		ROUND_ROBIN,
+		/**
+		 * the triples are spread over all partitions by the hash of their subject
+		 */
+		SUBJECT_HASH
+	}
+
+	/**
+	 * @param parameters threads, compression, assignment and fallback of the distribution
+	 * @return triples and bytes written to every partition, counted while they were written
+	 */
+	static PartitionCounts markovDistribution(String partitionOutputFolder, String datasetPath, String queriesPath, int totalPartitions, String graphWeightFile, String clusterFile, String predicateFile, DistributionParameters parameters) throws IOException {
+		int scanThreads = Math.max(1, parameters.getScanThreads());
+		Assignment assignment = parameters.getAssignment();
+		Fallback fallback = parameters.getFallback();
 		MarkovClustering.findClusters(graphWeightFile, clusterFile);
 
-		List<String> orderedPredicateList = getPredicatesInCluster(predicateFile, clusterFile);
-		Map<String, Integer> predicateToPartitionNr = assignPredicatesToPartitions(orderedPredicateList, totalPartitions);
+		PredicateDictionary dictionary = getPredicateDictionary(predicateFile);
+		PredicateHistogram histogram = null;
+		if (needsHistogram(assignment, fallback)) {
+			try (Metrics.Stage stage = Metrics.stage("histogram")) {
+				histogram = PredicateHistogram.count(datasetPath, new PartitionRouting(dictionary, totalPartitions - 1), scanThreads);
+				stage.count("triples", histogram.totalTriples());
+			}
+		}
+		PartitionRouting routing = planRouting(dictionary, histogram, totalPartitions, graphWeightFile, clusterFile, assignment, fallback);
+
+		// only with one scan thread the chunks are routed in order and the partition files keep the dataset order
+		PartitionCounts counts;
+		try (Metrics.Stage stage = Metrics.stage("distribution")) {
+			if (parameters.isUseRangeIndex() && !ParallelDatasetScanner.isCompressed(datasetPath) && !routing.spreadsBySubject()) {
+				counts = distributeIndexed(partitionOutputFolder, datasetPath, totalPartitions, routing, scanThreads, parameters.isCompressPartitions());
+			} else {
+				counts = distribute(partitionOutputFolder, datasetPath, totalPartitions, routing, scanThreads, parameters.isCompressPartitions());
+			}
+			stage.count("triples", counts.totalTriples());
+			stage.count("bytes", counts.totalBytes());
+		}
+
+		printDistribution(counts, datasetPath, queriesPath);
+		return counts;
+	}
 
-		try (BufferedReader reader = new BufferedReader(new FileReader(datasetPath))) {
+	/**
+	 * @return whether the assignment or the fallback needs the number of triples of every predicate
+	 */
+	static boolean needsHistogram(Assignment assignment, Fallback fallback) {
+		return assignment != Assignment.PREDICATE_COUNT || fallback == Fallback.ROUND_ROBIN;
+	}
 
-			List<BufferedWriter> partitionWriters = new ArrayList<>();
-			for (int i = 0; i < totalPartitions; i++) {
-				partitionWriters.add(new BufferedWriter(new FileWriter(partitionOutputFolder + "/Partition" + i)));
+	/**
+	 * assign the predicates of the clusters in the cluster file to the partitions.
+	 *
+	 * @param histogram triples of the predicates of the dictionary in the dataset, null unless {@link #needsHistogram}
+	 * @return the routing of the predicates of the dictionary, extended by the predicates of the
+	 *         dataset which are not in the query log for {@link Fallback#ROUND_ROBIN}
+	 */
+	static PartitionRouting planRouting(PredicateDictionary dictionary, PredicateHistogram histogram, int totalPartitions, String graphWeightFile, String clusterFile, Assignment assignment, Fallback fallback) throws IOException {
+		if (fallback == Fallback.ROUND_ROBIN) {
+			// the predicates which are not in the query log are placed like the predicates of the log in no cluster
+			PredicateDictionary extended = histogram.withOtherPredicates(dictionary);
+			histogram = histogram.forExtendedDictionary(extended);
+			dictionary = extended;
+		}
+		PartitionRouting routing;
+		try (Metrics.Stage assignmentStage = Metrics.stage("assignment")) {
+			if (assignment == Assignment.BALANCED || assignment == Assignment.MIN_CUT) {
+				routing = new PartitionRouting(dictionary, totalPartitions - 1);
+				if (fallback == Fallback.SUBJECT_HASH) {
+					routing.spreadBySubject(totalPartitions);
+				}
+				double imbalance;
+				if (assignment == Assignment.BALANCED) {
+					imbalance = PartitionBalancer.assign(routing, getClusters(dictionary, clusterFile), histogram, totalPartitions);
+				} else {
+					imbalance = MinCutPlacement.assign(routing, getClusters(dictionary, clusterFile), histogram, graphWeightFile, totalPartitions, PathConstants.BALANCE_TOLERANCE);
+				}
+				System.out.printf("Planned partition imbalance : %.3f\n", imbalance);
+			} else {
+				List<Integer> orderedPredicateList = getPredicatesInCluster(dictionary, clusterFile);
+				routing = assignPredicatesToPartitions(dictionary, orderedPredicateList, totalPartitions);
+				if (fallback == Fallback.SUBJECT_HASH) {
+					routing.spreadBySubject(totalPartitions);
+				} else if (fallback == Fallback.ROUND_ROBIN) {
+					System.out.printf("Planned partition imbalance : %.3f\n", PartitionBalancer.assignRemaining(routing, histogram, totalPartitions));
+				}
 			}
+			assignmentStage.count("predicates", dictionary.size());
+		}
+		return routing;
+	}
 
-			String line;
-			int lineCounter = 0;
-			while ((line = reader.readLine()) != null) {
-				String[] triple = line.trim().split(" ");
-				if (triple.length < 3 || !triple[1].startsWith("<")) {
-					System.out.printf("Error splitting line: %s\n", line.trim());
+	static void printDistribution(PartitionCounts counts, String datasetPath, String queriesPath) {
+		System.out.printf("Number of triples : %d\n", counts.totalTriples());
+		printPartitionSizes(counts);
+		System.out.printf("Input data set : %s\n", datasetPath);
+		System.out.printf("Input query-log file : %s\n", queriesPath);
+	}
+
+	private static void printPartitionSizes(PartitionCounts counts) {
+		for (int i = 0; i < counts.triples.length; i++) {
+			System.out.printf("Partition %d : %d triples, %d bytes\n", i, counts.triples[i], counts.bytes[i]);
+		}
+		System.out.printf("Partition imbalance : %.3f\n", counts.imbalance());
+	}
+
+	private static PartitionCounts distribute(String partitionOutputFolder, String datasetPath, int totalPartitions, PartitionRouting routing, int scanThreads, boolean compressPartitions) throws IOException {
+		return distribute(datasetPath, List.of(partitionOutputFolder), new int[] {totalPartitions}, List.of(routing), scanThreads, compressPartitions).get(0);
+	}
+
+	/**
+	 * route the lines of the dataset with every routing into the partitions in its output folder,
+	 * the dataset is read and every line is tokenized once for all routings.
+	 *
+	 * @return triples and bytes written to the partitions of every routing
+	 */
+	static List<PartitionCounts> distribute(String datasetPath, List<String> partitionOutputFolders, int[] totalPartitions, List<PartitionRouting> routings, int scanThreads, boolean compressPartitions) throws IOException {
+		List<List<PartitionOutput>> partitionOutputs = new ArrayList<>();
+		ExecutorService compressionPool = compressPartitions ? Executors.newFixedThreadPool(Math.max(1, PathConstants.COMPRESSION_THREADS)) : null;
+		try {
+			for (int i = 0; i < routings.size(); i++) {
+				List<PartitionOutput> outputs = new ArrayList<>();
+				partitionOutputs.add(outputs);
+				openPartitionOutputs(outputs, partitionOutputFolders.get(i), totalPartitions[i], compressionPool);
+			}
+			// the buffers of all routings of a thread together stay as large as the ones of a single routing
+			int flushThreshold = Math.max(RoutingLineHandler.MIN_FLUSH_THRESHOLD, RoutingLineHandler.FLUSH_THRESHOLD / routings.size());
+			List<List<RoutingLineHandler>> threadHandlers = Collections.synchronizedList(new ArrayList<>());
+			long datasetLines = ParallelDatasetScanner.scan(datasetPath, scanThreads, () -> {
+				List<RoutingLineHandler> handlers = new ArrayList<>();
+				for (int i = 0; i < routings.size(); i++) {
+					handlers.add(new RoutingLineHandler(partitionOutputs.get(i), routings.get(i), flushThreshold));
+				}
+				threadHandlers.add(handlers);
+				return handlers.size() == 1 ? handlers.get(0) : new FanOutLineHandler(handlers);
+			});
+
+			List<PartitionCounts> counts = new ArrayList<>();
+			for (int i = 0; i < routings.size(); i++) {
+				PartitionCounts routingCounts = new PartitionCounts(totalPartitions[i]);
+				routingCounts.datasetLines = datasetLines;
+				for (List<RoutingLineHandler> handlers : threadHandlers) {
+					routingCounts.merge(handlers.get(i).counts);
+				}
+				counts.add(routingCounts);
+			}
+			return counts;
+		} finally {
+			List<PartitionOutput> allOutputs = new ArrayList<>();
+			partitionOutputs.forEach(allOutputs::addAll);
+			closePartitionOutputs(allOutputs, compressionPool);
+		}
+	}
+
+	/**
+	 * copy the byte ranges of the predicates from the dataset to their partitions without
+	 * reading the lines, using the {@link PredicateRangeIndex} of the dataset. The index is
+	 * built by the first run and reused as long as the dataset does not change. Ranges which
+	 * follow each other in the dataset and go to the same partition are copied at once.
+	 * Unlike the routing scan the lines are copied as they are, without trimming them.
+	 */
+	private static PartitionCounts distributeIndexed(String partitionOutputFolder, String datasetPath, int totalPartitions, PartitionRouting routing, int scanThreads, boolean compressPartitions) throws IOException {
+		PredicateRangeIndex index = PredicateRangeIndex.forDataset(datasetPath, scanThreads);
+		int[] partitionOfPredicate = new int[index.predicates.size()];
+		for (int id = 0; id < partitionOfPredicate.length; id++) {
+			String predicate = index.predicates.predicate(id);
+			// lines which are no triple are dropped like by the routing scan
+			partitionOfPredicate[id] = predicate.isEmpty() ? -1 : routing.partitionOf(predicate);
+		}
+
+		List<PartitionOutput> partitionOutputs = new ArrayList<>();
+		ExecutorService compressionPool = compressPartitions ? Executors.newFixedThreadPool(Math.max(1, PathConstants.COMPRESSION_THREADS)) : null;
+		PartitionCounts counts = new PartitionCounts(totalPartitions);
+		counts.datasetLines = index.lines();
+		try (FileChannel dataset = FileChannel.open(Path.of(datasetPath), StandardOpenOption.READ)) {
+			openPartitionOutputs(partitionOutputs, partitionOutputFolder, totalPartitions, compressionPool);
+			int ranges = index.rangeCount();
+			for (int range = 0; range < ranges; range++) {
+				int partition = partitionOfPredicate[index.rangePredicates[range]];
+				if (partition < 0) {
 					continue;
 				}
-				String predicate = triple[1].trim();
-				int targetChunk;
-				targetChunk = predicateToPartitionNr.getOrDefault(predicate, totalPartitions - 1);
+				long start = index.rangeStarts[range];
+				long end = index.rangeEnds[range];
+				long lines = index.rangeLines[range];
+				while (range + 1 < ranges && index.rangeStarts[range + 1] == end
+						&& partitionOfPredicate[index.rangePredicates[range + 1]] == partition) {
+					range++;
+					end = index.rangeEnds[range];
+					lines += index.rangeLines[range];
+				}
+				PartitionOutput output = partitionOutputs.get(partition);
+				output.transferFrom(dataset, start, end - start);
+				counts.triples[partition] += lines;
+				counts.bytes[partition] += end - start;
+				if (end == index.datasetSize && !index.lastLineTerminated) {
+					output.write(RoutingLineHandler.LINE_SEPARATOR, 0, RoutingLineHandler.LINE_SEPARATOR.length);
+					counts.bytes[partition] += RoutingLineHandler.LINE_SEPARATOR.length;
+				}
+			}
+			return counts;
+		} finally {
+			closePartitionOutputs(partitionOutputs, compressionPool);
+		}
+	}
 
-				partitionWriters.get(targetChunk).write(line.trim());
-				partitionWriters.get(targetChunk).newLine();
-				lineCounter++;
+	private static void openPartitionOutputs(List<PartitionOutput> partitionOutputs, String partitionOutputFolder, int totalPartitions, ExecutorService compressionPool) throws IOException {
+		for (int i = 0; i < totalPartitions; i++) {
+			Path partitionFile = Path.of(partitionOutputFolder + "/Partition" + i);
+			if (compressionPool != null) {
+				// the empty placeholder of generatePartitionFiles is replaced by the compressed file
+				Files.deleteIfExists(partitionFile);
+				partitionOutputs.add(PartitionOutput.blockGzip(Path.of(partitionFile + ".gz"), compressionPool,
+						Deflater.DEFAULT_COMPRESSION, 2 * PathConstants.COMPRESSION_THREADS));
+			} else {
+				partitionOutputs.add(PartitionOutput.plain(partitionFile));
 			}
+		}
+	}
 
-			// clean up
-			partitionWriters.forEach(bufferedWriter -> {
-				try {
-					bufferedWriter.flush();
-					bufferedWriter.close();
-				} catch (IOException e) {
-					throw new RuntimeException(e);
+	private static void closePartitionOutputs(List<PartitionOutput> partitionOutputs, ExecutorService compressionPool) throws IOException {
+		for (PartitionOutput output : partitionOutputs) {
+			output.close();
+		}
+		if (compressionPool != null) {
+			compressionPool.shutdown();
+		}
+	}
+
+	/**
+	 * routes the lines of one scanner thread, lines are collected per partition
+	 * and appended to the shared partition outputs in blocks. The triples and
+	 * bytes written to every partition are counted on the way.
+	 */
+	static class RoutingLineHandler implements ParallelDatasetScanner.LineHandler {
+
+		private static final int FLUSH_THRESHOLD = 1 << 18;
+		private static final int MIN_FLUSH_THRESHOLD = 1 << 14;
+		static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+		private final List<PartitionOutput> partitionOutputs;
+		private final PartitionRouting routing;
+		private final NTriplesTokenizer tokenizer = new NTriplesTokenizer();
+		private final int flushThreshold;
+		private final byte[][] buffers;
+		private final int[] bufferLengths;
+		private final PartitionCounts counts;
+
+		RoutingLineHandler(List<PartitionOutput> partitionOutputs, PartitionRouting routing) {
+			this(partitionOutputs, routing, FLUSH_THRESHOLD);
+		}
+
+		RoutingLineHandler(List<PartitionOutput> partitionOutputs, PartitionRouting routing, int flushThreshold) {
+			this.partitionOutputs = partitionOutputs;
+			this.routing = routing;
+			this.flushThreshold = flushThreshold;
+			this.buffers = new byte[partitionOutputs.size()][flushThreshold + 8192];
+			this.bufferLengths = new int[partitionOutputs.size()];
+			this.counts = new PartitionCounts(partitionOutputs.size());
+		}
+
+		@Override
+		public void handleLine(byte[] chunk, int from, int to) throws IOException {
+			if (!tokenizer.predicate(chunk, from, to)) {
+				printSplitError(chunk, from, to);
+				return;
+			}
+			route(chunk, from, to, tokenizer);
+		}
+
+		/**
+		 * route the line whose subject and predicate were found by the tokenizer.
+		 */
+		void route(byte[] chunk, int from, int to, NTriplesTokenizer tokenizer) throws IOException {
+			int targetChunk = routing.partitionOf(chunk, tokenizer);
+
+			int lineBytes = appendLine(targetChunk, chunk, from, to - from);
+			counts.add(targetChunk, lineBytes);
+			if (bufferLengths[targetChunk] >= flushThreshold) {
+				flush(targetChunk);
+			}
+		}
+
+		static void printSplitError(byte[] chunk, int from, int to) {
+			System.out.printf("Error splitting line: %s\n", new String(chunk, from, to - from, StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public void endOfChunk() throws IOException {
+			for (int i = 0; i < buffers.length; i++) {
+				flush(i);
+			}
+		}
+
+		/**
+		 * append the line and its line separator to the buffer of the partition. The buffer is
+		 * only flushed before the line, so a block always ends after a complete line and the
+		 * blocks other threads write in between never split a line from its separator.
+		 *
+		 * @return bytes appended
+		 */
+		private int appendLine(int partition, byte[] line, int offset, int length) throws IOException {
+			int lineBytes = length + LINE_SEPARATOR.length;
+			if (bufferLengths[partition] + lineBytes > buffers[partition].length) {
+				flush(partition);
+				if (lineBytes > buffers[partition].length) {
+					buffers[partition] = new byte[lineBytes];
 				}
-			});
+			}
+			byte[] buffer = buffers[partition];
+			System.arraycopy(line, offset, buffer, bufferLengths[partition], length);
+			System.arraycopy(LINE_SEPARATOR, 0, buffer, bufferLengths[partition] + length, LINE_SEPARATOR.length);
+			bufferLengths[partition] += lineBytes;
+			return lineBytes;
+		}
+
+		private void flush(int partition) throws IOException {
+			if (bufferLengths[partition] == 0) {
+				return;
+			}
+			partitionOutputs.get(partition).write(buffers[partition], 0, bufferLengths[partition]);
+			bufferLengths[partition] = 0;
+		}
+	}
+
+	/**
+	 * routes the lines of one scanner thread with the handlers of several routings,
+	 * every line is tokenized once for all of them.
+	 */
+	static class FanOutLineHandler implements ParallelDatasetScanner.LineHandler {
+
+		private final List<RoutingLineHandler> handlers;
+		private final NTriplesTokenizer tokenizer = new NTriplesTokenizer();
+
+		FanOutLineHandler(List<RoutingLineHandler> handlers) {
+			this.handlers = handlers;
+		}
+
+		@Override
+		public void handleLine(byte[] chunk, int from, int to) throws IOException {
+			if (!tokenizer.predicate(chunk, from, to)) {
+				RoutingLineHandler.printSplitError(chunk, from, to);
+				return;
+			}
+			for (RoutingLineHandler handler : handlers) {
+				handler.route(chunk, from, to, tokenizer);
+			}
+		}
 
-			System.out.printf("Number of triples : %d\n", lineCounter);
-			System.out.printf("Input data set : %s\n", datasetPath);
-			System.out.printf("Input query-log file : %s\n", queriesPath);
+		@Override
+		public void endOfChunk() throws IOException {
+			for (RoutingLineHandler handler : handlers) {
+				handler.endOfChunk();
+			}
 		}
 	}
 
-	private static Map<String, Integer> assignPredicatesToPartitions(List<String> orderedPredicateList, int numberOfGraphChunks) {
-		Map<String, Integer> predicatesToPartitions = new HashMap<>();
+	private static PartitionRouting assignPredicatesToPartitions(PredicateDictionary dictionary, List<Integer> orderedPredicateList, int numberOfGraphChunks) {
 		// one chunk is always left for the predicates not in the cluster
+		PartitionRouting routing = new PartitionRouting(dictionary, numberOfGraphChunks - 1);
 		int numberOfChunksLeftUnassigned = numberOfGraphChunks - 1;
 		int currentPartitionNumber = 0;
 		while (currentPartitionNumber < numberOfGraphChunks - 1 && !orderedPredicateList.isEmpty()) {
 			int nrOfPredicatesToPartition = (int) Math.ceil(orderedPredicateList.size() / (float)(numberOfChunksLeftUnassigned));
 			for (int i = 0; i < nrOfPredicatesToPartition; i++) {
-				predicatesToPartitions.put(orderedPredicateList.get(i), currentPartitionNumber);
+				routing.assign(orderedPredicateList.get(i), currentPartitionNumber);
 			}
 			orderedPredicateList = orderedPredicateList.subList(nrOfPredicatesToPartition, orderedPredicateList.size());
 			currentPartitionNumber++;
 			numberOfChunksLeftUnassigned--;
 		}
-		return predicatesToPartitions;
+		return routing;
+	}
+
+	/**
+	 * @return ids of the predicates in the first cluster of the cluster file
+	 */
+	private static List<Integer> getPredicatesInCluster(PredicateDictionary dictionary, String clusterFile) {
+		List<List<Integer>> clusters = getClusters(dictionary, clusterFile);
+		return clusters.isEmpty() ? new ArrayList<>() : clusters.get(0);
 	}
 
-	private static List<String> getPredicatesInCluster(String predicateFile, String clusterFile) {
-		HashMap<String, String> numberToPredicate = new HashMap<>();
-//		try (BufferedReader br = new BufferedReader(new FileReader(PathConstants.PREDICATE_FILE))) {
-		try (BufferedReader br = new BufferedReader(new FileReader(predicateFile))) {
+	/**
+	 * @return ids of the predicates of every cluster of the cluster file, in file order
+	 */
+	private static List<List<Integer>> getClusters(PredicateDictionary dictionary, String clusterFile) {
+		List<List<Integer>> clusters = new ArrayList<>();
+		try (BufferedReader br = new BufferedReader(new FileReader(clusterFile))) {
 			String line;
-			while ((line = br.readLine()) != null) {
-				String[] lineWords = line.trim().split(" ");
-				if (lineWords.length == 3) {
-					numberToPredicate.put(lineWords[0], lineWords[2]);
-				}
+			while ((line = br.readLine()) != null && !StringUtils.isEmpty(line)) {
+				clusters.add(parseCluster(dictionary, line));
 			}
 		} catch (IOException e) {
-			System.out.printf("Error reading the predicates list: %s%n\n", e.getMessage());
+			System.out.printf("Error reading the cluster list: %s", e.getMessage());
 			e.printStackTrace();
 		}
+		return clusters;
+	}
 
-		LinkedList<String> orderedPredicateList = new LinkedList<>();
-//		try (BufferedReader br = new BufferedReader(new FileReader(PathConstants.CLUSTER_FILE))) {
-		try (BufferedReader br = new BufferedReader(new FileReader(clusterFile))) {
-			String line = br.readLine();
-			if (StringUtils.isEmpty(line)) {
-				return orderedPredicateList;
+	private static List<Integer> parseCluster(PredicateDictionary dictionary, String line) {
+		List<Integer> orderedPredicateList = new ArrayList<>();
+		line = StringUtils.substringAfter(line, "[");
+		line = StringUtils.substringBeforeLast(line, "]");
+		String[] predicateNumbers = line.split(", ");
+		for (String number :  predicateNumbers) {
+			int id;
+			try {
+				id = Integer.parseInt(number.trim());
+			} catch (NumberFormatException e) {
+				throw new RuntimeException("Failed to resolve the predicate for number \"" + number + "\"");
 			}
-			line = StringUtils.substringAfter(line, "[");
-			line = StringUtils.substringBeforeLast(line, "]");
-			String[] predicateNumbers = line.split(", ");
-			for (String number :  predicateNumbers) {
-				String predicate = numberToPredicate.get(number);
-				if (predicate == null) {
-					throw new RuntimeException("Failed to resolve the predicate for number \"" + number + "\"");
-				}
-				orderedPredicateList.add(predicate);
+			if (id < 0 || id >= dictionary.size()) {
+				throw new RuntimeException("Failed to resolve the predicate for number \"" + number + "\"");
 			}
-		} catch (IOException e) {
-			System.out.printf("Error reading the cluster list: %s", e.getMessage());
-			e.printStackTrace();
+			orderedPredicateList.add(id);
 		}
 		return orderedPredicateList;
 	}
 
-	private static void greedyDistribution(String clusterFile, String datasetPath, String predicateFile, String partitionOutputFolder, int totalPartitions, long partitionSize) throws IOException {
-		Set<String> cluster = getClusters(clusterFile);
-		PredicateFileGenerator.generatePredicateFiles(datasetPath, predicateFile);
-		getPredicateFileNames(predicateFile);
-
-		if(cluster.size() == 1) {
-			splitClusterIntoPartitions(cluster, partitionOutputFolder, totalPartitions, partitionSize);
-		}
-		else if(cluster.size() > 1) {
-			distributeClustersIntoPartitions(cluster, predicateFile, totalPartitions, partitionSize);
-		}
-
-		distributeRemainingTriples(partitionOutputFolder);
+	/**
+	 * which distribution of the triples {@link PCM} runs.
+	 */
+	enum Distribution {
+		/**
+		 * {@link #markovDistribution}, the dataset is routed by the partition of every predicate
+		 */
+		MARKOV,
+		/**
+		 * {@link #markovDistribution} copying the byte ranges of the {@link PredicateRangeIndex} of the
+		 * dataset, repeated runs on the same dataset do not read the lines again
+		 */
+		MARKOV_INDEXED,
+		/**
+		 * {@link #greedyDistribution}, the predicate files of the dataset are filled into the partitions by size
+		 */
+		GREEDY
 	}
 
-	private static void distributeClustersIntoPartitions(Set<String> clusters, String outputFolder, int totalPartitions, long partitionSize) throws IOException {
-		for(String c : clusters) {
-			Set<String>cluster = new HashSet<>();
-			cluster.add(c);
-			splitClusterIntoPartitions(cluster, outputFolder, totalPartitions, partitionSize);
+	/**
+	 * fill the predicates of every cluster into the partitions one after the other,
+	 * a partition is full once it holds partitionSize triples. The predicates in no
+	 * cluster go to the partition with the fewest bytes. The dataset is split into one
+	 * file per predicate first, which are appended to the partitions as a whole.
+	 *
+	 * @param partitionSize triples per partition, 0 or less divides the dataset evenly
+	 * @return triples and bytes written to every partition
+	 */
+	static PartitionCounts greedyDistribution(String partitionOutputFolder, String datasetPath, String queriesPath, int totalPartitions, String graphWeightFile, String clusterFile, String predicateFile, String predicateFilesFolder, long partitionSize) throws IOException {
+		MarkovClustering.findClusters(graphWeightFile, clusterFile);
 
+		PredicateDictionary dictionary = getPredicateDictionary(predicateFile);
+		List<List<Integer>> clusters = getClusters(dictionary, clusterFile);
+		Map<String, PredicateFileGenerator.PredicateFile> predicateFiles;
+		try (Metrics.Stage stage = Metrics.stage("predicate files")) {
+			predicateFiles = PredicateFileGenerator.generatePredicateFiles(datasetPath, predicateFilesFolder);
+			stage.count("files", predicateFiles.size());
 		}
-	}
-
-	private static void splitClusterIntoPartitions(Set<String> cluster, String outputFolder, int totalPartitions, long partitionSize ) throws IOException {
-        String predicates[] = cluster.iterator().next().split(",");
-        int currentPartition = 0;
-        int currentPartitionSize = 0;
-        for(int i=0; i<predicates.length; i++) {
-        	predicates[i] = predicates[i].replace("[", "").replace("]", "").trim();
-        	String predicate = predicateEncodings.get(Integer.parseInt(predicates[i]));
-        	Set<String> tripleSet = getTriplesFromDataset(predicate);
-        	predicateFileNames.remove(predicate);
-        	
-        	if(currentPartition == totalPartitions-1)
-        		currentPartition = 0;
-        	
-//        	if(currentPartitionSize < PathConstants.PARTITION_SIZE) {
-        	if(currentPartitionSize < partitionSize) {
-        		currentPartitionSize = currentPartitionSize + tripleSet.size();
-        		String fileName = outputFolder.concat("Partition") +currentPartition;
-        		appendPartition(fileName, tripleSet);
-        	}
-//        	else if(currentPartitionSize >= PathConstants.PARTITION_SIZE) {
-        	else if(currentPartitionSize >= partitionSize) {
-        		currentPartition = currentPartition + 1;
-        		currentPartitionSize = tripleSet.size();
-        		String fileName = outputFolder.concat("Partition") +currentPartition;
-        		appendPartition(fileName, tripleSet);        	}
-        }
-	}
-
-	private static void distributeRemainingTriples(String partitionOutputFolder) throws IOException {
-		for(String predicate : predicateFileNames.keySet()) {
-        	Set<String> tripleSet = getTriplesFromDataset(predicate);
-        	String smallestPartition = getSmallestFile(partitionOutputFolder);
-    		appendPartition(smallestPartition, tripleSet);
+		PartitionCounts counts = new PartitionCounts(totalPartitions);
+		try (Metrics.Stage distributionStage = Metrics.stage("distribution")) {
+			long triples = 0;
+			for (PredicateFileGenerator.PredicateFile file : predicateFiles.values()) {
+				counts.datasetLines += file.lines;
+				triples += file.predicate.isEmpty() ? 0 : file.lines;
+			}
+			// lines which are no triple are not distributed, like in the markov distribution
+			PredicateFileGenerator.PredicateFile invalidLines = predicateFiles.remove("");
+			if (invalidLines != null) {
+				System.out.printf("Lines which are no triple : %d\n", invalidLines.lines);
+			}
+			if (partitionSize <= 0) {
+				partitionSize = (triples + totalPartitions - 1) / totalPartitions;
+			}
 
+			List<FileChannel> partitions = new ArrayList<>();
+			try {
+				for (int i = 0; i < totalPartitions; i++) {
+					partitions.add(FileChannel.open(Path.of(partitionOutputFolder + "/Partition" + i),
+							StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+				}
+				for (List<Integer> cluster : clusters) {
+					int currentPartition = 0;
+					long currentPartitionSize = 0;
+					for (int id : cluster) {
+						PredicateFileGenerator.PredicateFile file = predicateFiles.remove(dictionary.predicate(id));
+						long predicateTriples = file == null ? 0 : file.lines;
+						if (currentPartition == totalPartitions - 1) {
+							currentPartition = 0;
+						}
+						if (currentPartitionSize < partitionSize) {
+							currentPartitionSize += predicateTriples;
+						} else {
+							currentPartition++;
+							currentPartitionSize = predicateTriples;
+						}
+						appendPredicateFile(file, partitions.get(currentPartition), counts, currentPartition);
+					}
+				}
 
-		}
-	}
-	
-	private static String getSmallestFile(String partitionOutputFolder) {
-//		File file = new File(PathConstants.PARTITION_OUTPUT_FOLDER);
-		File file = new File(partitionOutputFolder);
-		File[] files = file.listFiles();
-		String fMaxName = "";
-		String fMinName = "";
-		long fMaxLength = 0;
-		long fMinLength = Long.MAX_VALUE;
-		
-		
-		for (File f : files) {
-			if (f.isFile()) {
-				if (f.length() > fMaxLength) {
-					fMaxLength = f.length();
-					fMaxName = f.getAbsolutePath();
+				PriorityQueue<Integer> smallestPartition = new PriorityQueue<>(
+						Comparator.comparingLong((Integer partition) -> counts.bytes[partition]).thenComparingInt(partition -> partition));
+				for (int i = 0; i < totalPartitions; i++) {
+					smallestPartition.add(i);
+				}
+				for (PredicateFileGenerator.PredicateFile file : predicateFiles.values()) {
+					int partition = smallestPartition.poll();
+					appendPredicateFile(file, partitions.get(partition), counts, partition);
+					smallestPartition.add(partition);
 				}
-				if (f.length() < fMinLength) {
-					fMinLength = f.length();
-					fMinName = f.getAbsolutePath();
+			} finally {
+				for (FileChannel channel : partitions) {
+					channel.close();
 				}
-			} 
+			}
+			distributionStage.count("triples", counts.totalTriples());
+			distributionStage.count("bytes", counts.totalBytes());
 		}
-		return fMinName;
-	}
 
-	
-	private static void appendPartition(String fileName, Set<String> tripleSet) throws IOException {
-		FileWriter fw = new FileWriter(fileName, true);
-	    BufferedWriter writer = new BufferedWriter(fw); 
-	    for(String triple : tripleSet) {
-		    writer.write(triple);
-		    writer.newLine();  
-	    }
-	    writer.close();
+		System.out.printf("Number of triples : %d\n", counts.totalTriples());
+		printPartitionSizes(counts);
+		System.out.printf("Input data set : %s\n", datasetPath);
+		System.out.printf("Input query-log file : %s\n", queriesPath);
+		return counts;
 	}
 
-
-
-
-	private static void getPredicateFileNames(String predicateFiles) {
-//		File folder = new File(PathConstants.PREDICATE_FILES);
-		File folder = new File(predicateFiles);
-		File[] files = folder.listFiles();
-
-		for (File file:files) {
-			String predicate = "";
-			try {
-				BufferedReader br = new BufferedReader(new FileReader(file));			
-				String triple = "";
-				while ((triple = br.readLine()) != null){
-					if(triple.length() > 0) {
-						predicate = "<"+getPredicate(triple)+">";
-						break;
-					}
-				}
-				br.close();
-			}catch (IOException e){
-				e.printStackTrace();
-			}	
-			predicateFileNames.put(predicate, file.toString());
+	/**
+	 * copy the whole predicate file to the end of the partition, a missing file is a predicate without triples.
+	 */
+	private static void appendPredicateFile(PredicateFileGenerator.PredicateFile file, FileChannel partition, PartitionCounts counts, int partitionNumber) throws IOException {
+		if (file == null) {
+			return;
+		}
+		try (FileChannel source = FileChannel.open(file.path, StandardOpenOption.READ)) {
+			long size = source.size();
+			long position = 0;
+			while (position < size) {
+				position += source.transferTo(position, size - position, partition);
+			}
 		}
+		counts.triples[partitionNumber] += file.lines;
+		counts.bytes[partitionNumber] += file.bytes;
 	}
 
+	/**
+	 * @return IRI of the predicate as written in the N-Triples line, or "" if the line is not a triple
+	 */
 	static String getPredicate(String triple) {
-		String predicate = "";
-		try {
-	    	final Model model = ModelFactory.createDefaultModel();
-	    	RDFDataMgr.read(model, new ByteArrayInputStream(triple.getBytes(StandardCharsets.UTF_8)), Lang.NTRIPLES);
-	    	final StmtIterator listStatements = model.listStatements();
-	    	final Statement statement = listStatements.next();
-	    	predicate = statement.getPredicate().toString();
-	    } catch(Exception e) {  }
-		return predicate;
+		byte[] line = triple.getBytes(StandardCharsets.UTF_8);
+		NTriplesTokenizer tokenizer = new NTriplesTokenizer();
+		if (!tokenizer.triple(line, 0, line.length)) {
+			return "";
+		}
+		return new String(line, tokenizer.predicateStart + 1, tokenizer.predicateEnd - tokenizer.predicateStart - 2, StandardCharsets.UTF_8);
 	}
 
 	
 	
-	private static Set<String> getTriplesFromDataset(String predicate) {
-		Set<String> triples = new HashSet<>();
-		try{
-			BufferedReader br = new BufferedReader(new FileReader(predicateFileNames.get(predicate)));			
-			String s;
-			while ((s = br.readLine()) != null){
-				if(s.length() > 0) {
-					triples.add(s);
-				}
-			}
-			br.close();
-		}catch (Exception e){
-		}
-		return triples;
-	}
-
 	static void cleanExistingPartitionFiles(String partitionOutputFolder) {
 		try {
 			if (Files.isDirectory(Path.of(partitionOutputFolder))) {
@@ -347,35 +673,29 @@ public class PartitionGenerator {
 
 	
 	static void getPredicateEncodings(String predicateEncoding) {
-		try (BufferedReader br = new BufferedReader(new FileReader(predicateEncoding));) {
-			String s;
-			while ((s = br.readLine()) != null){
-				if(s.length() > 0) {
-					String line[] = s.split("=");
-					int index = Integer.parseInt(line[0].trim());
-					String predicate = line[1].trim();
-					predicateEncodings.add(index, predicate);
-				}
-			}
-		}catch (IOException e){
+		try {
+			setPredicateDictionary(predicateEncoding, PredicateDictionary.forPredicateFile(predicateEncoding));
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
-	private static Set<String> getClusters(String clusterFile) {
-		Set<String> cluster = new HashSet<String>();
-		try{
-			BufferedReader br = new BufferedReader(new FileReader(clusterFile));			
-			String s;
-			while ((s = br.readLine()) != null){
-				if(s.length() > 0) 
-					cluster.add(s);
-			}
-			br.close();
-		}catch (IOException e){
-			e.printStackTrace();
+	/**
+	 * @return the dictionary of the predicate file, it is only loaded again if the predicate file changes
+	 */
+	static PredicateDictionary getPredicateDictionary(String predicateFile) throws IOException {
+		if (predicateDictionary == null || !predicateFile.equals(predicateDictionaryFile)) {
+			predicateDictionary = PredicateDictionary.forPredicateFile(predicateFile);
+			predicateDictionaryFile = predicateFile;
 		}
-		return cluster;
+		return predicateDictionary;
 	}
 
+	/**
+	 * use a dictionary which was just built, e.g. by the weight generation, instead of loading it again.
+	 */
+	static void setPredicateDictionary(String predicateFile, PredicateDictionary dictionary) {
+		predicateDictionary = dictionary;
+		predicateDictionaryFile = predicateFile;
+	}
 }
@@ -0,0 +1,144 @@
+package org.example.clustering;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * PartitionOutput is the file of one partition. Several threads append blocks
+ * of complete lines to it, every block is written as a whole.
+ */
+interface PartitionOutput extends Closeable {
+
+    void write(byte[] block, int offset, int length) throws IOException;
+
+    /**
+     * append count bytes of the source starting at position, e.g. a byte range of the dataset.
+     */
+    default void transferFrom(FileChannel source, long position, long count) throws IOException {
+        byte[] block = new byte[(int) Math.min(count, 1 << 20)];
+        long end = position + count;
+        while (position < end) {
+            int length = (int) Math.min(block.length, end - position);
+            ParallelDatasetScanner.readFully(source, block, length, position);
+            write(block, 0, length);
+            position += length;
+        }
+    }
+
+    /**
+     * @return output writing the blocks as they are
+     */
+    static PartitionOutput plain(Path file) throws IOException {
+        return new Plain(open(file));
+    }
+
+    /**
+     * @return output compressing the blocks on the pool into a {@link BlockGzip} file
+     */
+    static PartitionOutput blockGzip(Path file, ExecutorService pool, int level, int maxPending) throws IOException {
+        return new BlockGzipped(open(file), pool, level, maxPending);
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer block) throws IOException {
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+    }
+
+    class Plain implements PartitionOutput {
+
+        private final FileChannel channel;
+
+        Plain(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public synchronized void write(byte[] block, int offset, int length) throws IOException {
+            writeFully(channel, ByteBuffer.wrap(block, offset, length));
+        }
+
+        /**
+         * copies without reading the bytes into the heap, see {@link FileChannel#transferTo}.
+         */
+        @Override
+        public synchronized void transferFrom(FileChannel source, long position, long count) throws IOException {
+            long end = position + count;
+            while (position < end) {
+                position += source.transferTo(position, end - position, channel);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * compresses every block as a task on the pool, the compressed blocks are
+     * written in the order the blocks arrived. A writer waits for the oldest
+     * task when more than maxPending blocks are in flight.
+     */
+    class BlockGzipped implements PartitionOutput {
+
+        private final FileChannel channel;
+        private final ExecutorService pool;
+        private final int level;
+        private final int maxPending;
+        private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+        BlockGzipped(FileChannel channel, ExecutorService pool, int level, int maxPending) {
+            this.channel = channel;
+            this.pool = pool;
+            this.level = level;
+            this.maxPending = maxPending;
+        }
+
+        @Override
+        public synchronized void write(byte[] block, int offset, int length) throws IOException {
+            // the caller reuses its buffer
+            byte[] copy = Arrays.copyOfRange(block, offset, offset + length);
+            pending.add(pool.submit(() -> BlockGzip.compress(copy, 0, copy.length, level)));
+            while (!pending.isEmpty() && (pending.size() > maxPending || pending.peek().isDone())) {
+                writeOldest();
+            }
+        }
+
+        private void writeOldest() throws IOException {
+            try {
+                writeFully(channel, ByteBuffer.wrap(pending.poll().get()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compressing", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                while (!pending.isEmpty()) {
+                    writeOldest();
+                }
+                writeFully(channel, ByteBuffer.wrap(BlockGzip.EOF_BLOCK));
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
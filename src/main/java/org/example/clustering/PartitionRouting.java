@@ -0,0 +1,110 @@
+package org.example.clustering;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * PartitionRouting maps the predicates of the {@link PredicateDictionary} to
+ * their partition number. Predicates which are unknown to the dictionary or
+ * were not assigned to a partition go to the fallback partition, or are
+ * spread over all partitions by the hash of their subject, see {@link #spreadBySubject}.
+ * <p>
+ * Predicates can also be looked up by their UTF-8 bytes in a line of the
+ * dataset, without creating a String.
+ */
+class PartitionRouting {
+
+    private final PredicateDictionary dictionary;
+    private final int[] partitionOfId;
+    private final int fallbackPartition;
+    private final BytesIntHashMap idsByBytes;
+    // number of partitions the unassigned triples are spread over by subject, 0 sends them to the fallback partition
+    private int subjectPartitions;
+
+    PartitionRouting(PredicateDictionary dictionary, int fallbackPartition) {
+        this.dictionary = dictionary;
+        this.partitionOfId = new int[dictionary.size()];
+        this.fallbackPartition = fallbackPartition;
+        Arrays.fill(partitionOfId, -1);
+        idsByBytes = new BytesIntHashMap(partitionOfId.length);
+        for (int id = 0; id < partitionOfId.length; id++) {
+            byte[] predicate = dictionary.predicate(id).getBytes(StandardCharsets.UTF_8);
+            idsByBytes.putIfAbsent(predicate, 0, predicate.length, id);
+        }
+    }
+
+    void assign(int predicateId, int partition) {
+        partitionOfId[predicateId] = partition;
+    }
+
+    /**
+     * @return partition of the predicate id or -1 if it was not assigned
+     */
+    int assignedPartition(int predicateId) {
+        return partitionOfId[predicateId];
+    }
+
+    int partitionOf(String predicate) {
+        int id = dictionary.idOf(predicate);
+        if (id == PredicateDictionary.NOT_FOUND || id >= partitionOfId.length || partitionOfId[id] < 0) {
+            return fallbackPartition;
+        }
+        return partitionOfId[id];
+    }
+
+    /**
+     * @return partition of the predicate bytes[from, to), e.g. the predicate span of a dataset line
+     */
+    int partitionOf(byte[] bytes, int from, int to) {
+        int id = idsByBytes.get(bytes, from, to);
+        if (id == BytesIntHashMap.NOT_FOUND || partitionOfId[id] < 0) {
+            return fallbackPartition;
+        }
+        return partitionOfId[id];
+    }
+
+    /**
+     * @return partition of the line whose subject and predicate were found by the tokenizer
+     */
+    int partitionOf(byte[] line, NTriplesTokenizer tokenizer) {
+        int id = idsByBytes.get(line, tokenizer.predicateStart, tokenizer.predicateEnd);
+        if (id != BytesIntHashMap.NOT_FOUND && partitionOfId[id] >= 0) {
+            return partitionOfId[id];
+        }
+        if (subjectPartitions > 0) {
+            return Math.floorMod(BytesIntHashMap.hash(line, tokenizer.subjectStart, tokenizer.subjectEnd), subjectPartitions);
+        }
+        return fallbackPartition;
+    }
+
+    /**
+     * send the triples of unknown and unassigned predicates to the partition of the hash of
+     * their subject, so all these triples of a subject stay together in one partition.
+     */
+    void spreadBySubject(int partitions) {
+        subjectPartitions = partitions;
+    }
+
+    /**
+     * @return whether unassigned triples need the subject of the line to be routed
+     */
+    boolean spreadsBySubject() {
+        return subjectPartitions > 0;
+    }
+
+    /**
+     * @return dictionary id of the predicate bytes[from, to) or {@link PredicateDictionary#NOT_FOUND}
+     */
+    int predicateIdOf(byte[] bytes, int from, int to) {
+        int id = idsByBytes.get(bytes, from, to);
+        return id == BytesIntHashMap.NOT_FOUND ? PredicateDictionary.NOT_FOUND : id;
+    }
+
+    int fallbackPartition() {
+        return fallbackPartition;
+    }
+
+    PredicateDictionary dictionary() {
+        return dictionary;
+    }
+}
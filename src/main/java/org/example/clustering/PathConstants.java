@@ -11,11 +11,49 @@ public class PathConstants {
     static final String CLUSTER_FILE = PATH +"pcm/clusters.txt";
     static final String PREDICATE_FILE = PATH +"pcm/predicateEncoding.txt";
     static final String PREDICATE_FILES = PATH +"pcm/predicate-based/";
+    // open predicate files and bytes of buffered lines while the predicate files are written
+    static final int PREDICATE_FILE_HANDLES = 256;
+    static final long PREDICATE_FILE_BUFFER_BYTES = 64L * 1024 * 1024;
     static final String PARTITION_OUTPUT_FOLDER = PATH +"pcm/pcm-partition-files/fully-featured-queries/sparql_2023-04-06_09-15-50Z-9"; //swdf-300-bgp-queries";
+    // a full run numbers the predicates and orders the edges like the original weight generator, so MCL finds the same clusters
     static final String GRAPH_WEIGHT_FILE = PATH + "pcm/graphweight.txt";
+    // predicate dictionary, pair counts and read positions of the query logs for incremental weight updates,
+    // an update reads the log up to its last line break. It numbers the predicates in lexicographic order and
+    // sorts the edges, so its partitions can differ from the ones of a full run over the same queries
+    static final String WEIGHT_STATE_FILE = PATH + "pcm/graphweight.state";
     static final int TOTAL_PARTITIONS = 10;
+    // number of threads routing the dataset into the partitions, 1 keeps the sequential scan
+    static final int SCAN_THREADS = Runtime.getRuntime().availableProcessors();
+    // MARKOV routes the dataset by the predicate clusters, MARKOV_INDEXED copies the byte ranges of the predicates
+    // with the index file next to the dataset instead, GREEDY fills the predicate files into the partitions by size
+    static final PartitionGenerator.Distribution DISTRIBUTION = PartitionGenerator.Distribution.MARKOV;
+    // where the predicates in no cluster go, LAST_PARTITION keeps them together, ROUND_ROBIN spreads them
+    // by their number of triples, SUBJECT_HASH spreads their triples by subject
+    static final PartitionGenerator.Fallback FALLBACK = PartitionGenerator.Fallback.LAST_PARTITION;
+    // how the predicate clusters are assigned to the partitions, BALANCED packs them by their number of triples,
+    // MIN_CUT also places them to cut little co-occurrence weight
+    static final PartitionGenerator.Assignment PARTITION_ASSIGNMENT = PartitionGenerator.Assignment.PREDICATE_COUNT;
+    // MIN_CUT keeps every partition below (1 + BALANCE_TOLERANCE) times the average partition
+    static final double BALANCE_TOLERANCE = 0.1;
+    // write the partitions as block gzip files Partition{i}.gz, compressed by COMPRESSION_THREADS threads
+    static final boolean COMPRESS_PARTITIONS = false;
+    static final int COMPRESSION_THREADS = Runtime.getRuntime().availableProcessors();
+    // bytes of lines held in memory by the external predicate sort of a dataset
+    static final long SORT_MEMORY_BYTES = Runtime.getRuntime().maxMemory() / 4;
+    // number of threads counting the predicate co-occurrences of the query log
+    static final int WEIGHT_THREADS = Runtime.getRuntime().availableProcessors();
+    // size cap of the cache of parsed queries next to the predicate file, 0 parses every query again
+    static final long QUERY_CACHE_BYTES = 256L * 1024 * 1024;
+    // how the predicates of the queries are found, SYNTAX_TREE also finds the predicates written with
+    // shorthands and property paths, so it gives a weight graph with more edges than PatternsFinder
+    static final PredicateExtractor.Type PREDICATE_EXTRACTOR = PredicateExtractor.Type.STRING_PATTERNS;
+    // MCL implementation and the number of threads of the NATIVE one, COMPONENTS runs NATIVE on every
+    // connected component of the graph on its own and the components in parallel
+    static final MarkovClustering.Engine MCL_ENGINE = MarkovClustering.Engine.NATIVE;
+    static final int MCL_THREADS = Runtime.getRuntime().availableProcessors();
 
     //dbpedia dataset has total 232536510 triples
     //swdf dataset has total 304583 triples
+    // triples per partition of the GREEDY distribution, 0 divides the dataset evenly
     static final long PARTITION_SIZE = 304583/ TOTAL_PARTITIONS;  // This is total number of triples in the dataset
 }
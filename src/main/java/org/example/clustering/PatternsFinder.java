@@ -31,7 +31,12 @@ public class PatternsFinder {
 	public static Set<String> getTriplePatterns(String query) {
 
 		Query q = QueryFactory.create(query);
-		
+
+		return getTriplePatterns(q);
+	}
+
+	public static Set<String> getTriplePatterns(Query q) {
+
 		String patt = q.getQueryPattern().toString();
 		
 		String[] firstPatterns = patt.split("\\{");
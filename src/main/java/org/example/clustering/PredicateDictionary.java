@@ -0,0 +1,274 @@
+package org.example.clustering;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PredicateDictionary assigns dense integer ids to predicates. Ids are handed
+ * out in the order predicates are first added, starting with 0, and are used
+ * as node labels of the weighted predicate graph and the clusters.
+ * <p>
+ * Lookups by predicate go through a hash map and lookups by id through a dense
+ * array. Adding predicates is thread-safe.
+ * <p>
+ * Next to the human readable predicate file ("id = predicate" per line) the
+ * dictionary is stored in a binary form which is loaded instead of the text
+ * file, see {@link #binaryFileFor(String)}. A binary form which was written
+ * for another state of the text file is built again from the text file.
+ */
+public class PredicateDictionary {
+
+    static final int NOT_FOUND = -1;
+
+    private static final int MAGIC = 0x50434d44; // "PCMD"
+    private static final int VERSION = 2;
+
+    private final ConcurrentHashMap<String, Integer> ids;
+    private volatile String[] predicates;
+    private volatile int size;
+
+    public PredicateDictionary() {
+        this(1024);
+    }
+
+    private PredicateDictionary(int capacity) {
+        ids = new ConcurrentHashMap<>(capacity);
+        predicates = new String[Math.max(16, capacity)];
+    }
+
+    /**
+     * @return id of the predicate, a new id is assigned if the predicate is unknown
+     */
+    public int getOrAdd(String predicate) {
+        Integer id = ids.get(predicate);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(predicate);
+            if (id != null) {
+                return id;
+            }
+            int newId = size;
+            if (newId == predicates.length) {
+                predicates = Arrays.copyOf(predicates, newId * 2);
+            }
+            predicates[newId] = predicate;
+            size = newId + 1;
+            ids.put(predicate, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * @return id of the predicate or {@link #NOT_FOUND}
+     */
+    public int idOf(String predicate) {
+        Integer id = ids.get(predicate);
+        return id == null ? NOT_FOUND : id;
+    }
+
+    public String predicate(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Unknown predicate id " + id);
+        }
+        return predicates[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a dictionary with the same predicates whose ids follow the
+     *         lexicographic order of the predicates, independent of the order
+     *         in which they were added
+     */
+    PredicateDictionary sortedCopy() {
+        int count = size;
+        String[] sorted = Arrays.copyOf(predicates, count);
+        Arrays.sort(sorted);
+        PredicateDictionary dictionary = new PredicateDictionary(count);
+        for (String predicate : sorted) {
+            dictionary.getOrAdd(predicate);
+        }
+        return dictionary;
+    }
+
+    /**
+     * @return for every id of this dictionary the id of the same predicate in the other dictionary
+     */
+    int[] idMapping(PredicateDictionary other) {
+        int count = size;
+        int[] mapping = new int[count];
+        for (int id = 0; id < count; id++) {
+            mapping[id] = other.idOf(predicates[id]);
+        }
+        return mapping;
+    }
+
+    /**
+     * @return the binary dictionary file stored next to the given predicate file
+     */
+    static String binaryFileFor(String predicateFile) {
+        if (predicateFile.endsWith(".txt")) {
+            return predicateFile.substring(0, predicateFile.length() - ".txt".length()) + ".dict";
+        }
+        return predicateFile + ".dict";
+    }
+
+    /**
+     * write the predicate file and the binary dictionary next to it.
+     */
+    void write(String predicateFile) throws IOException {
+        writeText(predicateFile);
+        saveNextTo(predicateFile);
+    }
+
+    /**
+     * load the dictionary belonging to the predicate file, the binary form is
+     * preferred if it exists and was written for the current text file.
+     */
+    static PredicateDictionary forPredicateFile(String predicateFile) throws IOException {
+        Path binaryFile = Path.of(binaryFileFor(predicateFile));
+        Path textFile = Path.of(predicateFile);
+        if (Files.exists(binaryFile) && (!Files.exists(textFile) || isWrittenFor(binaryFile, textFile))) {
+            return load(binaryFile.toString());
+        }
+        PredicateDictionary dictionary = readText(predicateFile);
+        if (Files.exists(binaryFile)) {
+            System.out.println("Building " + binaryFile + " again, " + predicateFile + " changed since it was written");
+            dictionary.saveNextTo(predicateFile);
+        }
+        return dictionary;
+    }
+
+    private static boolean isWrittenFor(Path binaryFile, Path textFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(binaryFile, StandardOpenOption.READ)) {
+            if (channel.size() < 2 * Integer.BYTES + 2 * Long.BYTES) {
+                return false;
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 2 * Integer.BYTES + 2 * Long.BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return false;
+            }
+            return header.getLong() == Files.size(textFile) && header.getLong() == Files.getLastModifiedTime(textFile).toMillis();
+        }
+    }
+
+    void writeText(String predicateFile) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(predicateFile))) {
+            int count = size;
+            for (int id = 0; id < count; id++) {
+                writer.write(id + " = " + predicates[id] + "\n");
+            }
+        }
+    }
+
+    static PredicateDictionary readText(String predicateFile) throws IOException {
+        PredicateDictionary dictionary = new PredicateDictionary();
+        try (BufferedReader reader = new BufferedReader(new FileReader(predicateFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf('=');
+                if (separator < 0) {
+                    continue;
+                }
+                int id = Integer.parseInt(line.substring(0, separator).trim());
+                String predicate = line.substring(separator + 1).trim();
+                if (dictionary.getOrAdd(predicate) != id) {
+                    throw new IOException("Predicate ids in " + predicateFile + " are not dense, found id " + id + " for " + predicate);
+                }
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * binary layout: magic, version, size and modification time of the text
+     * file, number of predicates followed by the length prefixed UTF-8 bytes
+     * of every predicate in id order.
+     */
+    void saveNextTo(String predicateFile) throws IOException {
+        Path textFile = Path.of(predicateFile);
+        long textSize = Files.size(textFile);
+        long textModified = Files.getLastModifiedTime(textFile).toMillis();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFileFor(predicateFile)), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(textSize);
+            out.writeLong(textModified);
+            writeTo(out);
+        }
+    }
+
+    /**
+     * write the number of predicates and the predicates, without magic and version.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        int count = size;
+        out.writeInt(count);
+        for (int id = 0; id < count; id++) {
+            byte[] bytes = predicates[id].getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * read a dictionary written by {@link #writeTo(DataOutput)}.
+     */
+    static PredicateDictionary readFrom(DataInput in) throws IOException {
+        int count = in.readInt();
+        PredicateDictionary dictionary = new PredicateDictionary(count);
+        for (int id = 0; id < count; id++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            dictionary.getOrAdd(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return dictionary;
+    }
+
+    static PredicateDictionary load(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(file), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 3 * Integer.BYTES + 2 * Long.BYTES || buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a predicate dictionary");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported predicate dictionary version " + version + " in " + file);
+            }
+            // size and modification time of the text file
+            buffer.position(2 * Integer.BYTES + 2 * Long.BYTES);
+            int count = buffer.getInt();
+            PredicateDictionary dictionary = new PredicateDictionary(count);
+            byte[] bytes = new byte[256];
+            for (int id = 0; id < count; id++) {
+                int length = buffer.getInt();
+                if (bytes.length < length) {
+                    bytes = new byte[length];
+                }
+                buffer.get(bytes, 0, length);
+                dictionary.getOrAdd(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            }
+            return dictionary;
+        }
+    }
+}
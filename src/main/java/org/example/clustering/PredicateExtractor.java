@@ -0,0 +1,38 @@
+package org.example.clustering;
+
+import org.apache.jena.query.Query;
+
+/**
+ * A PredicateExtractor finds the predicates used in the triple patterns of a
+ * parsed SPARQL query and returns their ids in the {@link PredicateDictionary}.
+ * Variable predicates are left out. Implementations are thread-safe.
+ */
+public interface PredicateExtractor {
+
+    /**
+     * @return distinct predicate ids of the query in the order the predicates first occur in its triple patterns
+     */
+    int[] predicateIds(Query query);
+
+    enum Type {
+        /**
+         * triple patterns found by {@link PatternsFinder} in the string form of the query pattern
+         */
+        STRING_PATTERNS,
+        /**
+         * triple patterns found by walking the syntax tree of the query pattern
+         */
+        SYNTAX_TREE;
+
+        public PredicateExtractor create(PredicateDictionary dictionary) {
+            switch (this) {
+                case STRING_PATTERNS:
+                    return new StringPredicateExtractor(dictionary);
+                case SYNTAX_TREE:
+                    return new SyntaxTreePredicateExtractor(dictionary);
+                default:
+                    throw new IllegalStateException("Unknown extractor " + this);
+            }
+        }
+    }
+}
@@ -1,12 +1,19 @@
 package org.example.clustering;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 public class PredicateFileGenerator {
@@ -21,40 +28,210 @@ public class PredicateFileGenerator {
 
     }
 
-    static public void generatePredicateFiles(String datasetFile, String outputFolder) {
-        HashMap<String, BufferedWriter> predicateToFile = new HashMap<>();
+    /**
+     * write the triples of every predicate to their own file, lines which are
+     * no triple go to one file together.
+     *
+     * @return the files by predicate as written in the dataset, the file of the lines which
+     *         are no triple has the predicate "", in the order the predicates first appear
+     */
+    static public Map<String, PredicateFile> generatePredicateFiles(String datasetFile, String outputFolder) {
+        return generatePredicateFiles(datasetFile, outputFolder, PathConstants.PREDICATE_FILE_HANDLES, PathConstants.PREDICATE_FILE_BUFFER_BYTES);
+    }
+
+    /**
+     * @param maxOpenFiles number of predicate files open at the same time
+     * @param bufferBudget bytes of all line buffers together, lines of rare predicates wait there for a batch
+     */
+    static Map<String, PredicateFile> generatePredicateFiles(String datasetFile, String outputFolder, int maxOpenFiles, long bufferBudget) {
         if (!outputFolder.endsWith("/")) {
             outputFolder = outputFolder + "/";
         }
-        try (BufferedReader datasetReader = new BufferedReader(new FileReader(datasetFile))) {
-            String line;
-            while ((line = datasetReader.readLine()) != null) {
-                String predicate = PartitionGenerator.getPredicate(line);
-
-                if (!predicateToFile.containsKey(predicate)) {
-                    BufferedWriter writer = Files.newBufferedWriter(Path.of(outputFolder + UUID.randomUUID()));
-                    predicateToFile.put(predicate, writer);
-                }
-
-                BufferedWriter writer = predicateToFile.get(predicate);
-                writer.write(line);
-                writer.newLine();
-            }
+        PredicateFileWriter writer = new PredicateFileWriter(outputFolder, maxOpenFiles, bufferBudget);
+        try {
+            Files.createDirectories(Path.of(outputFolder));
+            // one scanner thread keeps the dataset order inside the predicate files
+            ParallelDatasetScanner.scan(datasetFile, 1, () -> writer);
         } catch (IOException e) {
             System.out.println("Error reading the dataset with message: " + e.getMessage());
             e.printStackTrace();
         } finally {
-            predicateToFile.values().forEach(bufferedWriter -> {
+            writer.close();
+        }
+        Map<String, PredicateFile> files = new LinkedHashMap<>();
+        for (PredicateFile file : writer.files) {
+            files.put(file.predicate, file);
+        }
+        return files;
+    }
+
+    /**
+     * file with the lines of one predicate, counted while they were written.
+     */
+    static class PredicateFile {
+
+        final String predicate;
+        final Path path;
+        long lines;
+        long bytes;
+
+        PredicateFile(String predicate, Path path) {
+            this.predicate = predicate;
+            this.path = path;
+        }
+    }
+
+    /**
+     * finds the predicate of every line by its bytes and appends the line to the file of the predicate.
+     * <p>
+     * The lines are collected in a buffer per predicate and written in batches. Frequent
+     * predicates write a batch whenever their buffer is full. When all buffers together
+     * exceed the buffer budget, the largest buffers are written and released, so the
+     * lines of rare predicates are written in a few batches. At most maxOpenFiles files
+     * are open, the least recently written one is closed for a new one and is opened
+     * again in append mode later.
+     */
+    private static class PredicateFileWriter implements ParallelDatasetScanner.LineHandler {
+
+        private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+        private static final int BATCH_BYTES = 1 << 16;
+        private static final int INITIAL_BUFFER_BYTES = 256;
+
+        private final String outputFolder;
+        private final int maxOpenFiles;
+        private final long bufferBudget;
+        private final NTriplesTokenizer tokenizer = new NTriplesTokenizer();
+        private final BytesIntHashMap fileOfPredicate = new BytesIntHashMap();
+        private final List<PredicateFile> files = new ArrayList<>();
+        private byte[][] buffers = new byte[64][];
+        private int[] bufferLengths = new int[64];
+        private boolean[] created = new boolean[64];
+        // capacity of all buffers
+        private long bufferedBytes;
+        // open files in the order they were last written, least recent first
+        private final LinkedHashMap<Integer, FileChannel> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+
+        PredicateFileWriter(String outputFolder, int maxOpenFiles, long bufferBudget) {
+            this.outputFolder = outputFolder;
+            this.maxOpenFiles = Math.max(1, maxOpenFiles);
+            this.bufferBudget = bufferBudget;
+        }
+
+        @Override
+        public void handleLine(byte[] chunk, int from, int to) throws IOException {
+            int predicateStart = from;
+            int predicateEnd = from;
+            if (tokenizer.triple(chunk, from, to)) {
+                predicateStart = tokenizer.predicateStart;
+                predicateEnd = tokenizer.predicateEnd;
+            }
+            int file = fileOfPredicate.putIfAbsent(chunk, predicateStart, predicateEnd, files.size());
+            if (file == files.size()) {
+                Path path = Path.of(outputFolder + UUID.randomUUID());
+                files.add(new PredicateFile(new String(chunk, predicateStart, predicateEnd - predicateStart, StandardCharsets.UTF_8), path));
+                if (file == buffers.length) {
+                    buffers = Arrays.copyOf(buffers, 2 * file);
+                    bufferLengths = Arrays.copyOf(bufferLengths, 2 * file);
+                    created = Arrays.copyOf(created, 2 * file);
+                }
+            }
+            int lineBytes = to - from + LINE_SEPARATOR.length;
+            reserve(file, lineBytes);
+            System.arraycopy(chunk, from, buffers[file], bufferLengths[file], to - from);
+            System.arraycopy(LINE_SEPARATOR, 0, buffers[file], bufferLengths[file] + to - from, LINE_SEPARATOR.length);
+            bufferLengths[file] += lineBytes;
+            files.get(file).lines++;
+            files.get(file).bytes += lineBytes;
+
+            if (bufferLengths[file] >= BATCH_BYTES) {
+                write(file);
+            } else if (bufferedBytes > bufferBudget) {
+                writeLargestBuffers();
+            }
+        }
+
+        @Override
+        public void endOfChunk() {
+            // the lines stay in the buffers of the predicates until they are written in batches
+        }
+
+        private void reserve(int file, int length) {
+            byte[] buffer = buffers[file];
+            int needed = bufferLengths[file] + length;
+            if (buffer == null || needed > buffer.length) {
+                int capacity = buffer == null ? INITIAL_BUFFER_BYTES : buffer.length;
+                while (capacity < needed) {
+                    capacity *= 2;
+                }
+                buffers[file] = buffer == null ? new byte[capacity] : Arrays.copyOf(buffer, capacity);
+                bufferedBytes += capacity - (buffer == null ? 0 : buffer.length);
+            }
+        }
+
+        /**
+         * write and release the largest buffers until they use at most half of the budget.
+         */
+        private void writeLargestBuffers() throws IOException {
+            List<Integer> held = new ArrayList<>();
+            for (int file = 0; file < files.size(); file++) {
+                if (buffers[file] != null) {
+                    held.add(file);
+                }
+            }
+            held.sort(Comparator.comparingInt((Integer file) -> buffers[file].length).reversed());
+            for (int file : held) {
+                if (bufferedBytes <= bufferBudget / 2) {
+                    break;
+                }
+                write(file);
+                bufferedBytes -= buffers[file].length;
+                buffers[file] = null;
+            }
+        }
+
+        private void write(int file) throws IOException {
+            if (bufferLengths[file] == 0) {
+                return;
+            }
+            FileChannel channel = openFiles.get(file);
+            if (channel == null) {
+                if (openFiles.size() >= maxOpenFiles) {
+                    Iterator<FileChannel> leastRecent = openFiles.values().iterator();
+                    leastRecent.next().close();
+                    leastRecent.remove();
+                }
+                channel = created[file]
+                        ? FileChannel.open(files.get(file).path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                        : FileChannel.open(files.get(file).path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                created[file] = true;
+                openFiles.put(file, channel);
+            }
+            ByteBuffer batch = ByteBuffer.wrap(buffers[file], 0, bufferLengths[file]);
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            bufferLengths[file] = 0;
+        }
+
+        void close() {
+            try {
+                for (int file = 0; file < files.size(); file++) {
+                    write(file);
+                }
+            } catch (IOException e) {
+                System.out.println("Error writing the predicate files with message: " + e.getMessage());
+                e.printStackTrace();
+            }
+            for (FileChannel channel : openFiles.values()) {
                 try {
-                    bufferedWriter.flush();
-                    bufferedWriter.close();
+                    channel.close();
                 } catch (IOException e) {
                     System.out.println("Error closing the predicate file writers with message: " + e.getMessage());
                     e.printStackTrace();
                 }
-            });
+            }
+            openFiles.clear();
         }
-
     }
 
 }
@@ -0,0 +1,162 @@
+package org.example.clustering;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * PredicateHistogram is the number of triples of every predicate of a
+ * {@link PredicateDictionary} in the dataset. It is counted in one parallel
+ * pass which only finds the predicate of every line and writes nothing.
+ * The triples of the predicates which are not in the dictionary are counted
+ * by predicate as well, so they can be distributed by their size.
+ */
+class PredicateHistogram {
+
+    // triples by predicate id
+    final long[] triples;
+    // triples of predicates which are not in the dictionary
+    long otherTriples;
+    // triples of every predicate which is not in the dictionary, by predicate
+    final Map<String, Long> otherPredicates = new TreeMap<>();
+
+    PredicateHistogram(int predicates) {
+        triples = new long[predicates];
+    }
+
+    /**
+     * @param routing provides the lookup of the predicate ids by their bytes
+     */
+    static PredicateHistogram count(String datasetPath, PartitionRouting routing, int threads) throws IOException {
+        List<PredicateHistogram> histograms = Collections.synchronizedList(new ArrayList<>());
+        int predicates = routing.dictionary().size();
+        ParallelDatasetScanner.scan(datasetPath, threads, () -> {
+            PredicateHistogram histogram = new PredicateHistogram(predicates);
+            histograms.add(histogram);
+            NTriplesTokenizer tokenizer = new NTriplesTokenizer();
+            OtherPredicates others = new OtherPredicates(histogram);
+            return new ParallelDatasetScanner.LineHandler() {
+                @Override
+                public void handleLine(byte[] chunk, int from, int to) {
+                    if (!tokenizer.predicate(chunk, from, to)) {
+                        return;
+                    }
+                    int id = routing.predicateIdOf(chunk, tokenizer.predicateStart, tokenizer.predicateEnd);
+                    if (id == PredicateDictionary.NOT_FOUND) {
+                        histogram.otherTriples++;
+                        others.count(chunk, tokenizer.predicateStart, tokenizer.predicateEnd);
+                    } else {
+                        histogram.triples[id]++;
+                    }
+                }
+
+                @Override
+                public void endOfChunk() {
+                    // counts of the other predicates move to the histogram of the thread
+                    others.flush();
+                }
+            };
+        });
+
+        PredicateHistogram total = new PredicateHistogram(predicates);
+        for (PredicateHistogram histogram : histograms) {
+            for (int id = 0; id < predicates; id++) {
+                total.triples[id] += histogram.triples[id];
+            }
+            total.otherTriples += histogram.otherTriples;
+            histogram.otherPredicates.forEach((predicate, count) -> total.otherPredicates.merge(predicate, count, Long::sum));
+        }
+        return total;
+    }
+
+    /**
+     * counts the predicates which are not in the dictionary by their bytes, the
+     * predicate strings are only created once per predicate and thread.
+     */
+    private static class OtherPredicates {
+
+        private final PredicateHistogram histogram;
+        private final BytesIntHashMap idsByBytes = new BytesIntHashMap();
+        private final List<String> predicates = new ArrayList<>();
+        private long[] triples = new long[16];
+
+        OtherPredicates(PredicateHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        void count(byte[] chunk, int from, int to) {
+            int id = idsByBytes.putIfAbsent(chunk, from, to, predicates.size());
+            if (id == predicates.size()) {
+                predicates.add(new String(chunk, from, to - from, StandardCharsets.UTF_8));
+                if (id == triples.length) {
+                    triples = Arrays.copyOf(triples, 2 * id);
+                }
+            }
+            triples[id]++;
+        }
+
+        void flush() {
+            for (int id = 0; id < predicates.size(); id++) {
+                if (triples[id] > 0) {
+                    histogram.otherPredicates.merge(predicates.get(id), triples[id], Long::sum);
+                    triples[id] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return copy of the dictionary followed by the predicates which are not in it, in predicate order
+     */
+    PredicateDictionary withOtherPredicates(PredicateDictionary dictionary) {
+        PredicateDictionary extended = new PredicateDictionary();
+        for (int id = 0; id < dictionary.size(); id++) {
+            extended.getOrAdd(dictionary.predicate(id));
+        }
+        for (String predicate : otherPredicates.keySet()) {
+            extended.getOrAdd(predicate);
+        }
+        return extended;
+    }
+
+    /**
+     * @return this histogram over the dictionary returned by {@link #withOtherPredicates}
+     */
+    PredicateHistogram forExtendedDictionary(PredicateDictionary extended) {
+        PredicateHistogram histogram = new PredicateHistogram(extended.size());
+        System.arraycopy(triples, 0, histogram.triples, 0, triples.length);
+        otherPredicates.forEach((predicate, count) -> histogram.triples[extended.idOf(predicate)] = count);
+        return histogram;
+    }
+
+    /**
+     * @return this histogram, counted with an empty dictionary so every predicate is an other
+     *         predicate, as if it was counted with the given dictionary
+     */
+    PredicateHistogram forDictionary(PredicateDictionary dictionary) {
+        PredicateHistogram histogram = new PredicateHistogram(dictionary.size());
+        otherPredicates.forEach((predicate, count) -> {
+            int id = dictionary.idOf(predicate);
+            if (id == PredicateDictionary.NOT_FOUND) {
+                histogram.otherTriples += count;
+                histogram.otherPredicates.put(predicate, count);
+            } else {
+                histogram.triples[id] = count;
+            }
+        });
+        return histogram;
+    }
+
+    long totalTriples() {
+        long total = otherTriples;
+        for (long count : triples) {
+            total += count;
+        }
+        return total;
+    }
+}
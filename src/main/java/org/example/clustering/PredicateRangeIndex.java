@@ -0,0 +1,282 @@
+package org.example.clustering;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * PredicateRangeIndex is a sidecar file of a dataset which maps every
+ * predicate to the byte ranges of the dataset holding its lines. Consecutive
+ * lines with the same predicate are one range, so a dataset sorted by
+ * predicate (see {@link ExternalPredicateSort}) has one range per predicate
+ * while an unsorted one still has a range per run of equal predicates.
+ * <p>
+ * The ranges are kept in file order and include the line breaks, so copying
+ * them reproduces the lines of the dataset. Lines which are no triple belong
+ * to the predicate "". The index remembers size and modification time of the
+ * dataset and {@link #forDataset} builds it again when the dataset changed.
+ */
+final class PredicateRangeIndex {
+
+    private static final int MAGIC = 0x50434d49; // "PCMI"
+    private static final int VERSION = 1;
+
+    final long datasetSize;
+    final long datasetModified;
+    // whether the last line of the dataset ends with a line break
+    final boolean lastLineTerminated;
+    final PredicateDictionary predicates;
+    final int[] rangePredicates;
+    final int[] rangeLines;
+    final long[] rangeStarts;
+    final long[] rangeEnds;
+
+    private PredicateRangeIndex(long datasetSize, long datasetModified, boolean lastLineTerminated, PredicateDictionary predicates,
+                                int[] rangePredicates, int[] rangeLines, long[] rangeStarts, long[] rangeEnds) {
+        this.datasetSize = datasetSize;
+        this.datasetModified = datasetModified;
+        this.lastLineTerminated = lastLineTerminated;
+        this.predicates = predicates;
+        this.rangePredicates = rangePredicates;
+        this.rangeLines = rangeLines;
+        this.rangeStarts = rangeStarts;
+        this.rangeEnds = rangeEnds;
+    }
+
+    int rangeCount() {
+        return rangePredicates.length;
+    }
+
+    long lines() {
+        long lines = 0;
+        for (int count : rangeLines) {
+            lines += count;
+        }
+        return lines;
+    }
+
+    static String indexFileFor(String datasetPath) {
+        return datasetPath + ".pidx";
+    }
+
+    /**
+     * load the index of the dataset, it is built and saved first if it is missing or outdated.
+     */
+    static PredicateRangeIndex forDataset(String datasetPath, int threads) throws IOException {
+        String indexFile = indexFileFor(datasetPath);
+        Path dataset = Path.of(datasetPath);
+        if (Files.exists(Path.of(indexFile))) {
+            PredicateRangeIndex index = load(indexFile);
+            if (index.datasetSize == Files.size(dataset) && index.datasetModified == Files.getLastModifiedTime(dataset).toMillis()) {
+                return index;
+            }
+        }
+        PredicateRangeIndex index = build(datasetPath, threads);
+        index.save(indexFile);
+        System.out.printf("Indexed %d lines of %s in %d ranges\n", index.lines(), datasetPath, index.rangeCount());
+        return index;
+    }
+
+    /**
+     * scan the line-aligned chunks of the dataset in parallel and join their ranges in file order.
+     */
+    static PredicateRangeIndex build(String datasetPath, int threads) throws IOException {
+        if (ParallelDatasetScanner.isCompressed(datasetPath)) {
+            throw new IOException("Byte ranges of the compressed dataset " + datasetPath + " can not be copied");
+        }
+        Path dataset = Path.of(datasetPath);
+        long modified = Files.getLastModifiedTime(dataset).toMillis();
+        try (FileChannel channel = FileChannel.open(dataset, StandardOpenOption.READ)) {
+            List<long[]> chunks = ParallelDatasetScanner.lineAlignedChunks(channel, ParallelDatasetScanner.DEFAULT_CHUNK_SIZE);
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+            List<Future<ChunkRanges>> chunkRanges = new ArrayList<>();
+            try {
+                for (long[] chunk : chunks) {
+                    chunkRanges.add(pool.submit(() -> ChunkRanges.of(channel, chunk[0], chunk[1])));
+                }
+                Builder builder = new Builder();
+                for (Future<ChunkRanges> ranges : chunkRanges) {
+                    builder.append(ranges.get());
+                }
+                boolean lastLineTerminated = true;
+                if (channel.size() > 0) {
+                    byte[] last = new byte[1];
+                    ParallelDatasetScanner.readFully(channel, last, 1, channel.size() - 1);
+                    lastLineTerminated = last[0] == '\n';
+                }
+                return builder.build(channel.size(), modified, lastLineTerminated);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while indexing " + datasetPath, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * ranges of one chunk with predicate ids local to the chunk.
+     */
+    private static class ChunkRanges {
+
+        final PredicateDictionary predicates = new PredicateDictionary();
+        final Builder ranges = new Builder();
+
+        static ChunkRanges of(FileChannel channel, long start, long end) throws IOException {
+            int length = (int) (end - start);
+            byte[] buffer = new byte[length];
+            ParallelDatasetScanner.readFully(channel, buffer, length, start);
+
+            ChunkRanges chunk = new ChunkRanges();
+            NTriplesTokenizer tokenizer = new NTriplesTokenizer();
+            BytesIntHashMap idsByBytes = new BytesIntHashMap();
+            int lineStart = 0;
+            while (lineStart < length) {
+                int lineEnd = lineStart;
+                while (lineEnd < length && buffer[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                int next = Math.min(lineEnd + 1, length);
+                // trimmed like the lines of the scanner
+                int from = lineStart;
+                int to = lineEnd;
+                while (from < to && (buffer[from] & 0xff) <= ' ') {
+                    from++;
+                }
+                while (to > from && (buffer[to - 1] & 0xff) <= ' ') {
+                    to--;
+                }
+                int predicateStart = from;
+                int predicateEnd = from;
+                if (tokenizer.predicate(buffer, from, to)) {
+                    predicateStart = tokenizer.predicateStart;
+                    predicateEnd = tokenizer.predicateEnd;
+                }
+                int id = idsByBytes.putIfAbsent(buffer, predicateStart, predicateEnd, chunk.predicates.size());
+                if (id == chunk.predicates.size()) {
+                    chunk.predicates.getOrAdd(new String(buffer, predicateStart, predicateEnd - predicateStart, StandardCharsets.UTF_8));
+                }
+                chunk.ranges.add(id, 1, start + lineStart, start + next);
+                lineStart = next;
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * collects ranges in file order and joins a range with the previous one if they are adjacent and of the same predicate.
+     */
+    private static class Builder {
+
+        final PredicateDictionary predicates = new PredicateDictionary();
+        int[] rangePredicates = new int[1024];
+        int[] rangeLines = new int[1024];
+        long[] rangeStarts = new long[1024];
+        long[] rangeEnds = new long[1024];
+        int count;
+
+        void add(int predicate, int lines, long start, long end) {
+            if (count > 0 && rangePredicates[count - 1] == predicate && rangeEnds[count - 1] == start
+                    && rangeLines[count - 1] <= Integer.MAX_VALUE - lines) {
+                rangeLines[count - 1] += lines;
+                rangeEnds[count - 1] = end;
+                return;
+            }
+            if (count == rangePredicates.length) {
+                rangePredicates = Arrays.copyOf(rangePredicates, 2 * count);
+                rangeLines = Arrays.copyOf(rangeLines, 2 * count);
+                rangeStarts = Arrays.copyOf(rangeStarts, 2 * count);
+                rangeEnds = Arrays.copyOf(rangeEnds, 2 * count);
+            }
+            rangePredicates[count] = predicate;
+            rangeLines[count] = lines;
+            rangeStarts[count] = start;
+            rangeEnds[count] = end;
+            count++;
+        }
+
+        void append(ChunkRanges chunk) {
+            int[] globalIds = new int[chunk.predicates.size()];
+            for (int id = 0; id < globalIds.length; id++) {
+                globalIds[id] = predicates.getOrAdd(chunk.predicates.predicate(id));
+            }
+            Builder ranges = chunk.ranges;
+            for (int i = 0; i < ranges.count; i++) {
+                add(globalIds[ranges.rangePredicates[i]], ranges.rangeLines[i], ranges.rangeStarts[i], ranges.rangeEnds[i]);
+            }
+        }
+
+        PredicateRangeIndex build(long datasetSize, long datasetModified, boolean lastLineTerminated) {
+            return new PredicateRangeIndex(datasetSize, datasetModified, lastLineTerminated, predicates,
+                    Arrays.copyOf(rangePredicates, count), Arrays.copyOf(rangeLines, count),
+                    Arrays.copyOf(rangeStarts, count), Arrays.copyOf(rangeEnds, count));
+        }
+    }
+
+    void save(String file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(datasetSize);
+            out.writeLong(datasetModified);
+            out.writeBoolean(lastLineTerminated);
+            predicates.writeTo(out);
+            out.writeInt(rangeCount());
+            for (int i = 0; i < rangeCount(); i++) {
+                out.writeInt(rangePredicates[i]);
+                out.writeInt(rangeLines[i]);
+                out.writeLong(rangeStarts[i]);
+                out.writeLong(rangeEnds[i]);
+            }
+        }
+    }
+
+    static PredicateRangeIndex load(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a predicate range index");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported predicate range index version " + version + " in " + file);
+            }
+            long datasetSize = in.readLong();
+            long datasetModified = in.readLong();
+            boolean lastLineTerminated = in.readBoolean();
+            PredicateDictionary predicates = PredicateDictionary.readFrom(in);
+            int count = in.readInt();
+            int[] rangePredicates = new int[count];
+            int[] rangeLines = new int[count];
+            long[] rangeStarts = new long[count];
+            long[] rangeEnds = new long[count];
+            for (int i = 0; i < count; i++) {
+                rangePredicates[i] = in.readInt();
+                rangeLines[i] = in.readInt();
+                rangeStarts[i] = in.readLong();
+                rangeEnds[i] = in.readLong();
+            }
+            return new PredicateRangeIndex(datasetSize, datasetModified, lastLineTerminated, predicates, rangePredicates, rangeLines, rangeStarts, rangeEnds);
+        }
+    }
+}
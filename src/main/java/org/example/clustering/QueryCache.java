@@ -0,0 +1,423 @@
+package org.example.clustering;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * QueryCache remembers the predicates extracted from every query across runs,
+ * so a query which was seen in an earlier run is not parsed again. A query is
+ * identified by a 128 bit fingerprint of its normalised text, runs of blanks
+ * are one space and runs of line breaks one line break.
+ * <p>
+ * The cache file is append-only: a header, then predicate records, which
+ * number the predicates of the cache in file order, and query records with
+ * the predicate numbers of a query. The file is memory-mapped when the cache
+ * is opened and an index from fingerprint to record offset is built, the
+ * records of new queries are appended. Every query record carries the run in
+ * which it was used last, which is the only field written in place. When the
+ * file is larger than the size cap on close, it is rewritten with the most
+ * recently used queries only.
+ */
+final class QueryCache implements Closeable {
+
+    private static final int MAGIC = 0x50434d51; // "PCMQ"
+    // version 2 keeps the predicates of a query in the order of the extractor instead of sorted by id
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int GENERATION_OFFSET = 8;
+    private static final byte PREDICATE_RECORD = 1;
+    private static final byte QUERY_RECORD = 2;
+    // tag, 2 fingerprints, last used, status and predicate count of a query record
+    private static final int QUERY_RECORD_SIZE = 1 + 8 + 8 + 4 + 1 + 4;
+    private static final int LAST_USED_OFFSET = 1 + 8 + 8;
+    private static final long SECOND_SEED = 0x9E3779B97F4A7C15L;
+    // new records are appended once this many bytes are pending
+    private static final int APPEND_BATCH_BYTES = 1 << 20;
+
+    /**
+     * the query could not be parsed
+     */
+    static final byte INVALID = 0;
+    /**
+     * the query was parsed, but its predicates could not be extracted
+     */
+    static final byte NO_PATTERNS = 1;
+    /**
+     * the predicates of the query were extracted
+     */
+    static final byte PATTERNS = 2;
+
+    /**
+     * cached outcome of a query.
+     */
+    static class Entry {
+
+        final byte status;
+        final String[] predicates;
+
+        Entry(byte status, String[] predicates) {
+            this.status = status;
+            this.predicates = predicates;
+        }
+    }
+
+    private final Path file;
+    private final long maxBytes;
+    // seeds of the two halves of the fingerprints
+    private final long firstSeed;
+    private final long secondSeed;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final int generation;
+    // end of the records which were in the file when it was opened
+    private final int mappedEnd;
+    private long fileSize;
+
+    private final List<String> predicates = new ArrayList<>();
+    private final Map<String, Integer> predicateNumbers = new HashMap<>();
+    // fingerprint to the offset + 1 of a mapped record, or to -(index + 1) of a new record
+    private final LongIntHashMap index = new LongIntHashMap();
+    private final List<NewQuery> newQueries = new ArrayList<>();
+    private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pending = new DataOutputStream(pendingBytes);
+
+    private long hits;
+    private long misses;
+
+    private static class NewQuery {
+
+        final long secondFingerprint;
+        final byte status;
+        final int[] predicateNumbers;
+
+        NewQuery(long secondFingerprint, byte status, int[] predicateNumbers) {
+            this.secondFingerprint = secondFingerprint;
+            this.status = status;
+            this.predicateNumbers = predicateNumbers;
+        }
+    }
+
+    private QueryCache(Path file, long maxBytes, String salt) throws IOException {
+        this.file = file;
+        this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+        firstSeed = QueryFingerprint.of(salt);
+        secondSeed = QueryFingerprint.of(salt, SECOND_SEED);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE || isOtherVersion(channel)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putInt(0);
+            header.flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(file + " is not a query cache of version " + VERSION);
+        }
+        generation = mapped.getInt(GENERATION_OFFSET) + 1;
+        mapped.putInt(GENERATION_OFFSET, generation);
+        mappedEnd = readRecords();
+        fileSize = mappedEnd;
+        if (fileSize < channel.size()) {
+            // the last record of a run which did not finish appending
+            channel.truncate(fileSize);
+        }
+    }
+
+    /**
+     * @return whether the file is a query cache of another version, which is started anew
+     */
+    private static boolean isOtherVersion(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+        channel.read(header, 0);
+        header.flip();
+        return header.remaining() == 2 * Integer.BYTES && header.getInt() == MAGIC && header.getInt() != VERSION;
+    }
+
+    /**
+     * @param maxBytes size cap of the cache file, at most 2 GB
+     * @param salt kept apart from the query text in the fingerprint, e.g. the predicate extractor which filled the cache
+     */
+    static QueryCache open(String file, long maxBytes, String salt) throws IOException {
+        return new QueryCache(Path.of(file), maxBytes, salt);
+    }
+
+    /**
+     * @return the cache file in the folder of the predicate file, shared by all runs writing there
+     */
+    static String fileFor(String predicateFile) {
+        return Path.of(predicateFile).toAbsolutePath().resolveSibling("queryCache.bin").toString();
+    }
+
+    /**
+     * index the records of the mapped file.
+     *
+     * @return the end of the last complete record
+     */
+    private int readRecords() {
+        int position = HEADER_SIZE;
+        int limit = mapped.limit();
+        while (position < limit) {
+            byte tag = mapped.get(position);
+            if (tag == PREDICATE_RECORD && position + 5 <= limit) {
+                int length = mapped.getInt(position + 1);
+                if (length < 0 || position + 5 + length > limit) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = mapped.get(position + 5 + i);
+                }
+                addPredicate(new String(bytes, StandardCharsets.UTF_8));
+                position += 5 + length;
+            } else if (tag == QUERY_RECORD && position + QUERY_RECORD_SIZE <= limit) {
+                int count = mapped.getInt(position + QUERY_RECORD_SIZE - 4);
+                if (count < 0 || position + QUERY_RECORD_SIZE + 4L * count > limit) {
+                    break;
+                }
+                index.put(mapped.getLong(position + 1), position + 1);
+                position += QUERY_RECORD_SIZE + 4 * count;
+            } else {
+                break;
+            }
+        }
+        return position;
+    }
+
+    private int addPredicate(String predicate) {
+        predicateNumbers.put(predicate, predicates.size());
+        predicates.add(predicate);
+        return predicates.size() - 1;
+    }
+
+    /**
+     * @return the cached outcome of the query or null if it is not cached
+     */
+    synchronized Entry get(String queryText) {
+        String normalised = normalise(queryText);
+        long fingerprint = QueryFingerprint.of(normalised, firstSeed);
+        long secondFingerprint = QueryFingerprint.of(normalised, secondSeed);
+        int location = index.get(fingerprint);
+        if (location > 0) {
+            int offset = location - 1;
+            if (mapped.getLong(offset + 1 + 8) == secondFingerprint) {
+                mapped.putInt(offset + LAST_USED_OFFSET, generation);
+                String[] queryPredicates = new String[mapped.getInt(offset + QUERY_RECORD_SIZE - 4)];
+                for (int i = 0; i < queryPredicates.length; i++) {
+                    queryPredicates[i] = predicates.get(mapped.getInt(offset + QUERY_RECORD_SIZE + 4 * i));
+                }
+                hits++;
+                return new Entry(mapped.get(offset + LAST_USED_OFFSET + 4), queryPredicates);
+            }
+        } else if (location < 0) {
+            NewQuery query = newQueries.get(-location - 1);
+            if (query.secondFingerprint == secondFingerprint) {
+                String[] queryPredicates = new String[query.predicateNumbers.length];
+                for (int i = 0; i < queryPredicates.length; i++) {
+                    queryPredicates[i] = predicates.get(query.predicateNumbers[i]);
+                }
+                hits++;
+                return new Entry(query.status, queryPredicates);
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * add the outcome of a query which was not cached.
+     *
+     * @param queryPredicates predicates of the query, empty unless the status is {@link #PATTERNS}
+     */
+    synchronized void put(String queryText, byte status, String[] queryPredicates) throws IOException {
+        String normalised = normalise(queryText);
+        long fingerprint = QueryFingerprint.of(normalised, firstSeed);
+        long secondFingerprint = QueryFingerprint.of(normalised, secondSeed);
+        int[] numbers = new int[queryPredicates.length];
+        for (int i = 0; i < numbers.length; i++) {
+            Integer number = predicateNumbers.get(queryPredicates[i]);
+            if (number == null) {
+                number = addPredicate(queryPredicates[i]);
+                byte[] bytes = queryPredicates[i].getBytes(StandardCharsets.UTF_8);
+                pending.writeByte(PREDICATE_RECORD);
+                pending.writeInt(bytes.length);
+                pending.write(bytes);
+            }
+            numbers[i] = number;
+        }
+        newQueries.add(new NewQuery(secondFingerprint, status, numbers));
+        index.put(fingerprint, -newQueries.size());
+        writeQueryRecord(pending, fingerprint, secondFingerprint, generation, status, numbers);
+        if (pendingBytes.size() >= APPEND_BATCH_BYTES) {
+            appendPending();
+        }
+    }
+
+    private static void writeQueryRecord(DataOutputStream out, long fingerprint, long secondFingerprint, int lastUsed, byte status, int[] numbers) throws IOException {
+        out.writeByte(QUERY_RECORD);
+        out.writeLong(fingerprint);
+        out.writeLong(secondFingerprint);
+        out.writeInt(lastUsed);
+        out.writeByte(status);
+        out.writeInt(numbers.length);
+        for (int number : numbers) {
+            out.writeInt(number);
+        }
+    }
+
+    private void appendPending() throws IOException {
+        ByteBuffer records = ByteBuffer.wrap(pendingBytes.toByteArray());
+        while (records.hasRemaining()) {
+            fileSize += channel.write(records, fileSize);
+        }
+        pendingBytes.reset();
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    /**
+     * append the new records, the file is rewritten with the most recently used queries if it exceeds the size cap.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            appendPending();
+            mapped.force();
+            if (fileSize > maxBytes) {
+                evictLeastRecentlyUsed();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * rewrite the cache with the most recently used queries filling three quarters of the size cap,
+     * queries used in the same run are kept in the order they were added.
+     */
+    private void evictLeastRecentlyUsed() throws IOException {
+        MappedByteBuffer all = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        // offset of every indexed query record and the run it was used last
+        List<long[]> records = new ArrayList<>();
+        int newQuery = 0;
+        int position = HEADER_SIZE;
+        while (position < fileSize) {
+            if (all.get(position) == PREDICATE_RECORD) {
+                position += 5 + all.getInt(position + 1);
+            } else {
+                int location = index.get(all.getLong(position + 1));
+                // a query added twice is only kept once, at its indexed record
+                boolean indexed = position < mappedEnd ? location == position + 1 : location == -(++newQuery);
+                if (indexed) {
+                    records.add(new long[] {position, all.getInt(position + LAST_USED_OFFSET)});
+                }
+                position += QUERY_RECORD_SIZE + 4 * all.getInt(position + QUERY_RECORD_SIZE - 4);
+            }
+        }
+        records.sort(Comparator.comparingLong((long[] record) -> record[1]).thenComparingLong(record -> record[0]).reversed());
+
+        long budget = maxBytes * 3 / 4 - HEADER_SIZE;
+        int[] renumbered = new int[predicates.size()];
+        List<long[]> kept = new ArrayList<>();
+        for (long[] record : records) {
+            int offset = (int) record[0];
+            int count = all.getInt(offset + QUERY_RECORD_SIZE - 4);
+            long size = QUERY_RECORD_SIZE + 4L * count;
+            for (int i = 0; i < count; i++) {
+                if (renumbered[all.getInt(offset + QUERY_RECORD_SIZE + 4 * i)] == 0) {
+                    size += 5 + predicates.get(all.getInt(offset + QUERY_RECORD_SIZE + 4 * i)).getBytes(StandardCharsets.UTF_8).length;
+                }
+            }
+            if (size > budget) {
+                break;
+            }
+            budget -= size;
+            for (int i = 0; i < count; i++) {
+                // marked with -1 until the new numbers are known
+                renumbered[all.getInt(offset + QUERY_RECORD_SIZE + 4 * i)] = -1;
+            }
+            kept.add(record);
+        }
+
+        Path compacted = Path.of(file + ".tmp");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(generation);
+        int next = 0;
+        for (int number = 0; number < renumbered.length; number++) {
+            if (renumbered[number] == -1) {
+                byte[] predicate = predicates.get(number).getBytes(StandardCharsets.UTF_8);
+                out.writeByte(PREDICATE_RECORD);
+                out.writeInt(predicate.length);
+                out.write(predicate);
+                renumbered[number] = next++;
+            }
+        }
+        // least recently used first, like records appended over time
+        for (int i = kept.size() - 1; i >= 0; i--) {
+            int offset = (int) kept.get(i)[0];
+            int[] numbers = new int[all.getInt(offset + QUERY_RECORD_SIZE - 4)];
+            for (int j = 0; j < numbers.length; j++) {
+                numbers[j] = renumbered[all.getInt(offset + QUERY_RECORD_SIZE + 4 * j)];
+            }
+            writeQueryRecord(out, all.getLong(offset + 1), all.getLong(offset + 9), all.getInt(offset + LAST_USED_OFFSET),
+                    all.get(offset + LAST_USED_OFFSET + 4), numbers);
+        }
+        Files.write(compacted, bytes.toByteArray());
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.printf("Query cache %s: kept %d of %d queries in %d bytes\n", file, kept.size(), records.size(), bytes.size());
+    }
+
+    /**
+     * @return the text with runs of blanks replaced by a space and runs of blanks containing a line break by a line break
+     */
+    static String normalise(String text) {
+        StringBuilder normalised = new StringBuilder(text.length());
+        int i = 0;
+        int end = text.length();
+        while (i < end && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        while (end > i && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        while (i < end) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                normalised.append(c);
+                i++;
+                continue;
+            }
+            boolean lineBreak = false;
+            while (i < end && Character.isWhitespace(text.charAt(i))) {
+                lineBreak |= text.charAt(i) == '\n' || text.charAt(i) == '\r';
+                i++;
+            }
+            normalised.append(lineBreak ? '\n' : ' ');
+        }
+        return normalised.toString();
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.clustering;
+
+/**
+ * 64 bit fingerprints of query texts, used to recognise queries which were
+ * seen before without keeping their text in memory.
+ */
+final class QueryFingerprint {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private QueryFingerprint() {}
+
+    static long of(String text) {
+        return of(text, FNV_OFFSET_BASIS);
+    }
+
+    /**
+     * @param seed start value of the hash, fingerprints with different seeds can be combined to 128 bits
+     */
+    static long of(String text, long seed) {
+        // FNV-1a over the chars followed by the murmur3 finalizer
+        long hash = seed;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= text.length();
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
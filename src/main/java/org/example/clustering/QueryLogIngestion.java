@@ -0,0 +1,262 @@
+package org.example.clustering;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.opencsv.CSVReader;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+
+/**
+ * QueryLogIngestion streams a CSV query log into a {@link CooccurrenceCounter}.
+ * <p>
+ * One thread reads the CSV rows, drops queries whose text was seen before and
+ * puts the others into a bounded queue, so the reader blocks as soon as the
+ * workers fall behind and stops when a worker failed. Every worker parses a
+ * query exactly once, extracts its predicates and counts them into its own
+ * partial counter. The partial counters are merged when the log is exhausted.
+ * Only the 64 bit fingerprints of the query texts are kept, see
+ * {@link QueryFingerprint}.
+ * <p>
+ * With a {@link QueryCache} the predicates of queries parsed in an earlier run
+ * are taken from the cache and only the new queries are parsed. With a
+ * {@link WeightGraphOrder} the predicates of every query are kept as well, to
+ * find the order of the edges of the weighted graph.
+ */
+class QueryLogIngestion {
+
+    private static final int QUEUE_CAPACITY_PER_WORKER = 256;
+    // identity marks the end of the log for a worker
+    private static final LogQuery END_OF_LOG = new LogQuery("", -1);
+
+    private final PredicateExtractor extractor;
+    private final int threads;
+    private final LongIntHashMap seenQueries;
+    private final PredicateDictionary dictionary;
+    private final QueryCache cache;
+    private WeightGraphOrder order;
+
+    private long validQueries;
+    private long queriesWithPatterns;
+
+    /**
+     * @param seenQueries fingerprints of the queries which were already counted, new ones are added
+     */
+    QueryLogIngestion(PredicateExtractor extractor, int threads, LongIntHashMap seenQueries) {
+        this(extractor, threads, seenQueries, null, null);
+    }
+
+    /**
+     * @param dictionary the dictionary of the extractor, the predicates of cached queries are added to it
+     * @param cache predicates of the queries parsed before, new queries are added, null parses every query
+     */
+    QueryLogIngestion(PredicateExtractor extractor, int threads, LongIntHashMap seenQueries, PredicateDictionary dictionary, QueryCache cache) {
+        this.extractor = extractor;
+        this.threads = Math.max(1, threads);
+        this.seenQueries = seenQueries;
+        this.dictionary = dictionary;
+        this.cache = cache;
+    }
+
+    QueryLogIngestion(PredicateExtractor extractor, int threads) {
+        this(extractor, threads, new LongIntHashMap());
+    }
+
+    /**
+     * @param order records the predicates of every counted query
+     */
+    QueryLogIngestion recordOrder(WeightGraphOrder order) {
+        this.order = order;
+        return this;
+    }
+
+    /**
+     * a query text and its position among the distinct queries of the log.
+     */
+    private static class LogQuery {
+
+        final String text;
+        final long sequence;
+
+        LogQuery(String text, long sequence) {
+            this.text = text;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * count the co-occurrences of all new queries of the CSV log.
+     */
+    CooccurrenceCounter ingest(Reader queryLog) {
+        BlockingQueue<LogQuery> queue = new ArrayBlockingQueue<>(threads * QUEUE_CAPACITY_PER_WORKER);
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        try {
+            List<Future<Worker>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(() -> {
+                    Worker worker = new Worker();
+                    worker.run(queue);
+                    return worker;
+                }));
+            }
+            Future<?> reader = pool.submit(() -> {
+                readQueryLog(queryLog, queue, workers);
+                for (int i = 0; i < threads; i++) {
+                    putQuery(queue, END_OF_LOG, workers);
+                }
+                return null;
+            });
+
+            reader.get();
+            CooccurrenceCounter counter = new CooccurrenceCounter();
+            for (Future<Worker> future : workers) {
+                Worker worker = future.get();
+                counter.merge(worker.counter);
+                validQueries += worker.validQueries;
+                queriesWithPatterns += worker.queriesWithPatterns;
+            }
+            return counter;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return number of distinct queries which could be parsed
+     */
+    long getValidQueries() {
+        return validQueries;
+    }
+
+    /**
+     * @return number of distinct queries whose predicates could be extracted
+     */
+    long getQueriesWithPatterns() {
+        return queriesWithPatterns;
+    }
+
+    private void readQueryLog(Reader queryLog, BlockingQueue<LogQuery> queue, List<Future<Worker>> workers)
+            throws InterruptedException, ExecutionException {
+        try (CSVReader reader = new CSVReader(queryLog)) {
+            String[] queryLines;
+            long sequence = 0;
+            while ((queryLines = reader.readNext()) != null) {
+                String queryText = stringArrayToSingleString(queryLines);
+                if (seenQueries.addTo(QueryFingerprint.of(queryText), 1) == 1) {
+                    putQuery(queue, new LogQuery(queryText, sequence++), workers);
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            System.out.println("Error reading the query log with message: " + e.getMessage());
+        }
+    }
+
+    private static String stringArrayToSingleString(String[] input) {
+        StringBuilder sb = new StringBuilder();
+        for (Object obj : input)
+            sb.append(obj.toString()).append("\n");
+        return sb.substring(0, sb.length() - 1);
+    }
+
+    private static void putQuery(BlockingQueue<LogQuery> queue, LogQuery query, List<Future<Worker>> workers)
+            throws InterruptedException, ExecutionException {
+        while (!queue.offer(query, 100, TimeUnit.MILLISECONDS)) {
+            // stop reading when a worker failed instead of waiting for it forever
+            for (Future<Worker> worker : workers) {
+                if (worker.isDone()) {
+                    worker.get();
+                }
+            }
+        }
+    }
+
+    private class Worker {
+
+        private final CooccurrenceCounter counter = new CooccurrenceCounter();
+        // queries are taken from the queue in log order, so they are recorded in log order
+        private final WeightGraphOrder.Recorder recorder = order == null ? null : order.newRecorder();
+        private long validQueries;
+        private long queriesWithPatterns;
+
+        void run(BlockingQueue<LogQuery> queue) throws InterruptedException, IOException {
+            LogQuery logQuery;
+            while ((logQuery = queue.take()) != END_OF_LOG) {
+                String queryText = logQuery.text;
+                QueryCache.Entry cached = cache == null ? null : cache.get(queryText);
+                if (cached != null) {
+                    countCached(logQuery, cached);
+                    continue;
+                }
+                Query query;
+                try {
+                    query = QueryFactory.create(queryText);
+                } catch (Exception e) {
+                    cache(queryText, QueryCache.INVALID, new int[0]);
+                    continue;
+                }
+                validQueries++;
+                int[] predicateIds;
+                try {
+                    predicateIds = extractor.predicateIds(query);
+                } catch (Exception e) {
+                    System.err.println("Error getting query pattern, with message: " + e.getMessage());
+                    cache(queryText, QueryCache.NO_PATTERNS, new int[0]);
+                    continue;
+                }
+                count(logQuery, predicateIds);
+                cache(queryText, QueryCache.PATTERNS, predicateIds);
+            }
+        }
+
+        private void count(LogQuery logQuery, int[] predicateIds) {
+            counter.countQuery(predicateIds);
+            queriesWithPatterns++;
+            if (recorder != null) {
+                recorder.add(logQuery.sequence, logQuery.text.hashCode(), predicateIds);
+            }
+        }
+
+        private void countCached(LogQuery logQuery, QueryCache.Entry cached) {
+            if (cached.status == QueryCache.INVALID) {
+                return;
+            }
+            validQueries++;
+            if (cached.status == QueryCache.PATTERNS) {
+                int[] predicateIds = new int[cached.predicates.length];
+                for (int i = 0; i < predicateIds.length; i++) {
+                    predicateIds[i] = dictionary.getOrAdd(cached.predicates[i]);
+                }
+                // the cache keeps the order of the extractor
+                count(logQuery, predicateIds);
+            }
+        }
+
+        private void cache(String queryText, byte status, int[] predicateIds) throws IOException {
+            if (cache == null) {
+                return;
+            }
+            String[] predicates = new String[predicateIds.length];
+            for (int i = 0; i < predicates.length; i++) {
+                predicates[i] = dictionary.predicate(predicateIds[i]);
+            }
+            cache.put(queryText, status, predicates);
+        }
+    }
+}
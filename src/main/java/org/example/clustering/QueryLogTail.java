@@ -0,0 +1,130 @@
+package org.example.clustering;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * QueryLogTail finds and reads the part of a CSV query log that was appended
+ * after a given byte position. Only complete records are read: the tail ends
+ * after the last line break that is not inside a quoted field, so a record
+ * which is still being written is left for the next update.
+ * <p>
+ * Quotes and escapes are tracked like the default OpenCSV parser does
+ * ('"' as quote character, '\' escaping a quote or itself inside quotes).
+ */
+final class QueryLogTail {
+
+    // number of bytes at the start of a log whose hash identifies the log
+    static final int HEAD_BYTES = 4096;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private QueryLogTail() {
+    }
+
+    /**
+     * @param from start of a record
+     * @return position after the last complete record in [from, to)
+     */
+    static long completeRecordsEnd(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long end = from;
+        long position = from;
+        boolean inQuotes = false;
+        boolean escaped = false;
+        while (position < to) {
+            buffer.clear();
+            if (to - position < buffer.capacity()) {
+                buffer.limit((int) (to - position));
+            }
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (escaped) {
+                    escaped = false;
+                } else if (inQuotes && b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes) {
+                    end = position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    /**
+     * @return hash of the first {@link #HEAD_BYTES} bytes of the log, at most length bytes
+     */
+    static long headHash(FileChannel channel, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(HEAD_BYTES, length));
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+            // keep reading until the head is complete
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < buffer.position(); i++) {
+            hash ^= buffer.get(i) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * @return reader of the UTF-8 characters in [from, to), it does not close the channel
+     */
+    static Reader open(FileChannel channel, long from, long to) throws IOException {
+        channel.position(from);
+        return new InputStreamReader(new LimitedInputStream(Channels.newInputStream(channel), to - from), StandardCharsets.UTF_8);
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            // the channel belongs to the caller
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.clustering;
+
+import java.util.Set;
+
+import org.apache.jena.query.Query;
+
+/**
+ * extracts the predicates from the triple patterns which {@link PatternsFinder}
+ * finds in the string form of the query pattern. The patterns are visited in
+ * the iteration order of their set, like the original weight generator did.
+ */
+class StringPredicateExtractor implements PredicateExtractor {
+
+    private final PredicateDictionary dictionary;
+
+    StringPredicateExtractor(PredicateDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public int[] predicateIds(Query query) {
+        Set<String> patterns = PatternsFinder.getTriplePatterns(query);
+        int[] predicates = new int[patterns.size()];
+        int count = 0;
+        for (String pattern : patterns) {
+            if (pattern.contains(" ")) {
+                String predicate = pattern.split(" ")[1].trim();
+                if (!predicate.equals("?p")) {
+                    predicates[count++] = dictionary.getOrAdd(predicate);
+                }
+            }
+        }
+        return CooccurrenceCounter.distinct(predicates, count);
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.clustering;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.path.P_NegPropSet;
+import org.apache.jena.sparql.path.P_Path0;
+import org.apache.jena.sparql.path.P_Path1;
+import org.apache.jena.sparql.path.P_Path2;
+import org.apache.jena.sparql.path.Path;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementPathBlock;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
+import org.apache.jena.sparql.syntax.ElementTriplesBlock;
+import org.apache.jena.sparql.syntax.ElementVisitorBase;
+import org.apache.jena.sparql.syntax.ElementWalker;
+
+/**
+ * extracts the predicates by walking the syntax tree of the query pattern with
+ * an {@link ElementWalker}. Triple patterns are found in every group,
+ * OPTIONAL, UNION, GRAPH, SERVICE, MINUS and sub-query, independent of how the
+ * query was written (prefixed names, "a", ';' and ',' shorthands). The IRIs of
+ * property paths count as predicates except for negated property sets.
+ */
+class SyntaxTreePredicateExtractor implements PredicateExtractor {
+
+    private final PredicateDictionary dictionary;
+    // IRI -> predicate id, saves building the "<IRI>" dictionary key again for known predicates
+    private final ConcurrentHashMap<String, Integer> idsByIri = new ConcurrentHashMap<>();
+
+    SyntaxTreePredicateExtractor(PredicateDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public int[] predicateIds(Query query) {
+        Element pattern = query.getQueryPattern();
+        if (pattern == null) {
+            return new int[0];
+        }
+        PredicateCollector collector = new PredicateCollector();
+        ElementWalker.walk(pattern, collector);
+        return CooccurrenceCounter.distinct(collector.ids, collector.count);
+    }
+
+    private int idOf(String iri) {
+        Integer id = idsByIri.get(iri);
+        if (id == null) {
+            id = idsByIri.computeIfAbsent(iri, key -> dictionary.getOrAdd("<" + key + ">"));
+        }
+        return id;
+    }
+
+    private class PredicateCollector extends ElementVisitorBase {
+
+        private int[] ids = new int[16];
+        private int count;
+
+        @Override
+        public void visit(ElementPathBlock el) {
+            for (TriplePath triplePath : el.getPattern()) {
+                if (triplePath.isTriple()) {
+                    add(triplePath.getPredicate());
+                } else {
+                    addPath(triplePath.getPath());
+                }
+            }
+        }
+
+        @Override
+        public void visit(ElementTriplesBlock el) {
+            for (Triple triple : el.getPattern()) {
+                add(triple.getPredicate());
+            }
+        }
+
+        @Override
+        public void visit(ElementSubQuery el) {
+            // the walker does not descend into sub-queries by itself
+            Element subPattern = el.getQuery().getQueryPattern();
+            if (subPattern != null) {
+                ElementWalker.walk(subPattern, this);
+            }
+        }
+
+        private void addPath(Path path) {
+            if (path instanceof P_Path0) {
+                add(((P_Path0) path).getNode());
+            } else if (path instanceof P_Path1) {
+                addPath(((P_Path1) path).getSubPath());
+            } else if (path instanceof P_Path2) {
+                addPath(((P_Path2) path).getLeft());
+                addPath(((P_Path2) path).getRight());
+            } else if (!(path instanceof P_NegPropSet)) {
+                throw new IllegalArgumentException("Unsupported property path " + path);
+            }
+        }
+
+        private void add(Node predicate) {
+            if (!predicate.isURI()) {
+                return;
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = idOf(predicate.getURI());
+        }
+    }
+}
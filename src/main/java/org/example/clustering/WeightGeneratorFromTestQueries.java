@@ -1,13 +1,10 @@
 package org.example.clustering;
 
 import java.io.*;
-import java.util.*;
-import java.util.Set;
-
-import com.opencsv.CSVReader;
-
-import org.apache.jena.query.Query;
-import org.apache.jena.query.QueryFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * WeightGeneratorFromTestQueries extract a list of predicate co-occurrences
@@ -22,166 +19,210 @@ import org.apache.jena.query.QueryFactory;
  * given list entry 𝑒 =< 𝑝 1, 𝑝 2, 𝑐 >, it creates two nodes for 𝑝 1 and 𝑝 2
  * that are connected by a link with weight equalling 𝑐.
  * The corresponding weighted graph and Encoding of predicates will be written in two text files.
+ * <p>
+ * {@link #updateWeights} keeps the counts in a {@link CooccurrenceState} file
+ * and only reads what was appended to a query log since the last update, or a
+ * query log it has not seen before.
  */
 public class WeightGeneratorFromTestQueries {
 
+	/**
+	 * without arguments the weights are generated from scratch, with "update"
+	 * and optionally a query log the state file is updated with the new queries.
+	 */
 	public static void main(String[] args) throws IOException {
-		generateWeights(PathConstants.QUERIES_PATH, PathConstants.GRAPH_WEIGHT_FILE, PathConstants.PREDICATE_FILE, null);
-	}
-
-	public static void generateWeights(String queryFile, String graphWeightFile, String predicateFile, Measurement measurement) throws IOException {
-		long start = System.currentTimeMillis();
-		WeightGeneratorFromTestQueries wgftq = new WeightGeneratorFromTestQueries();
-		Set<String> queries = wgftq.readQueryFile(queryFile);
-		System.out.println("Total Input queries are: " +queries.size());
-
-		Map<Integer, Set<String>> patterns = wgftq.getQueryPatterns(queries);
-		if (measurement != null) {
-			measurement.setQuerySetSize(patterns.keySet().size());
+		if (args.length > 0 && args[0].equals("update")) {
+			String queryFile = args.length > 1 ? args[1] : PathConstants.QUERIES_PATH;
+			updateWeights(queryFile, PathConstants.WEIGHT_STATE_FILE, PathConstants.GRAPH_WEIGHT_FILE, PathConstants.PREDICATE_FILE, null);
+		} else {
+			generateWeights(PathConstants.QUERIES_PATH, PathConstants.GRAPH_WEIGHT_FILE, PathConstants.PREDICATE_FILE, null);
 		}
-		System.out.println("Total queries with patterns : " +patterns.keySet().size());
-
-		Map<String, Integer> graphWeight = wgftq.getWeight(patterns);
-
-		wgftq.generateOutputFile(graphWeight, graphWeightFile, predicateFile);
+	}
 
-		System.out.printf("Weight generation time (ms): %d \n", System.currentTimeMillis() - start);
+	/**
+	 * @return the dictionary of the predicates in the weighted graph, it is also written to the predicate file
+	 */
+	public static PredicateDictionary generateWeights(String queryFile, String graphWeightFile, String predicateFile, Measurement measurement) throws IOException {
+		return generateWeights(queryFile, graphWeightFile, predicateFile, measurement, PathConstants.PREDICATE_EXTRACTOR);
 	}
 
-	private void generateOutputFile(Map<String, Integer> graphWeight, String graphWeightFile, String predicateFile) throws IOException {
-		List<String> takenPredicates = new ArrayList<>();
-
-		try (FileWriter weightFile = new FileWriter(graphWeightFile);
-			 FileWriter predicateEncodingFile = new FileWriter(predicateFile);) {
-
-			for (String key : graphWeight.keySet()) {
-				String pred1 = key.split(" ")[0].trim();
-				String pred2 = key.split(" ")[1].trim();
-				int ser1 = 0;
-				int ser2 = 0;
-				if (!takenPredicates.contains(pred1)) {
-					takenPredicates.add(pred1);
-					ser1 = takenPredicates.indexOf(pred1);
-					predicateEncodingFile.write(ser1 + " = " + pred1 + "\n");
-					predicateEncodingFile.flush();
-				} else
-					ser1 = takenPredicates.indexOf(pred1);
-
-				if (!takenPredicates.contains(pred2)) {
-					takenPredicates.add(pred2);
-					ser2 = takenPredicates.indexOf(pred2);
-					predicateEncodingFile.write(ser2 + " = " + pred2 + "\n");
-					predicateEncodingFile.flush();
-				} else
-					ser2 = takenPredicates.indexOf(pred2);
-
-				weightFile.write(ser1 + " " + ser2 + " " + graphWeight.get(key) + "\n");
-				weightFile.flush();
+	/**
+	 * @param extractorType how the predicates are found in the queries
+	 * @return the dictionary of the predicates in the weighted graph, it is also written to the predicate file
+	 */
+	public static PredicateDictionary generateWeights(String queryFile, String graphWeightFile, String predicateFile, Measurement measurement, PredicateExtractor.Type extractorType) throws IOException {
+		long start = System.currentTimeMillis();
+		PredicateDictionary dictionary = new PredicateDictionary();
+		try (Metrics.Stage stage = Metrics.stage("weights")) {
+			WeightGeneratorFromTestQueries wgftq = new WeightGeneratorFromTestQueries();
+
+			CooccurrenceCounter graphWeight;
+			QueryLogIngestion ingestion;
+			WeightGraphOrder order = new WeightGraphOrder();
+			try (QueryCache cache = openQueryCache(predicateFile, extractorType)) {
+				ingestion = new QueryLogIngestion(extractorType.create(dictionary), PathConstants.WEIGHT_THREADS, new LongIntHashMap(), dictionary, cache)
+						.recordOrder(order);
+				try (Reader queryLog = new BufferedReader(new FileReader(queryFile))) {
+					graphWeight = ingestion.ingest(queryLog);
+				} catch (FileNotFoundException e) {
+					System.out.println("file not found");
+					graphWeight = new CooccurrenceCounter();
+				}
+				printCacheUse(cache);
+				countCacheUse(stage, cache);
 			}
-		}
-	}
+			System.out.println("Total Input queries are: " +ingestion.getValidQueries());
+			stage.count("queries", ingestion.getValidQueries());
 
+			if (measurement != null) {
+				measurement.setQuerySetSize(ingestion.getQueriesWithPatterns());
+			}
+			System.out.println("Total queries with patterns : " +ingestion.getQueriesWithPatterns());
+			System.out.println("Total edges of weighted graph of predicates: " + graphWeight.size());
+
+			// ids depend on the order the workers met the predicates, number them and order the edges like the original generator did
+			long[] pairOrder = order.pairOrder(dictionary, ingestion.getValidQueries());
+			PredicateDictionary graphDictionary = WeightGraphOrder.numbering(pairOrder, dictionary);
+			int[] newIds = dictionary.idMapping(graphDictionary);
+			int[] edges = new int[3 * pairOrder.length];
+			for (int i = 0; i < pairOrder.length; i++) {
+				int first = (int) (pairOrder[i] >>> 32);
+				int second = (int) pairOrder[i];
+				edges[3 * i] = newIds[first];
+				edges[3 * i + 1] = newIds[second];
+				edges[3 * i + 2] = graphWeight.count(first, second);
+			}
+			dictionary = graphDictionary;
 
-	private Map<String, Integer> getWeight(Map<Integer, Set<String>> patterns) {
-		Map<String, Integer> graphWeight = new HashMap<>();
-		for(int i=0; i<patterns.keySet().size(); i++) {
-			getPredicateWeightInPattern(graphWeight, patterns.get(i));
-		}
+			wgftq.generateOutputFile(new WeightGraphFile(dictionary.size(), edges), dictionary, graphWeightFile, predicateFile);
 
-		System.out.println("Total edges of weighted graph of predicates: " + graphWeight.size());
-		return graphWeight;
+			stage.count("edges", graphWeight.size());
+		}
+		System.out.printf("Weight generation time (ms): %d \n", System.currentTimeMillis() - start);
+		return dictionary;
 	}
 
+	/**
+	 * add the queries appended to the query log since the last update to the
+	 * counts in the state file and write the weighted graph and the predicate
+	 * file of all queries counted so far. Without a state file the whole log
+	 * is read and the state file is created. Only records ending with a line
+	 * break are read, a last record without one is counted by a later update
+	 * once it was terminated, a full run counts it at once.
+	 * <p>
+	 * The state does not keep the order of the queries, so the predicates are
+	 * numbered in lexicographic order and the edges are sorted by id instead of
+	 * in the order of a full run. MCL depends on both, the clusters of an
+	 * updated graph can differ from the ones of a full run over the same log.
+	 *
+	 * @return the dictionary of the predicates in the weighted graph, it is also written to the predicate file
+	 */
+	public static PredicateDictionary updateWeights(String queryFile, String stateFile, String graphWeightFile, String predicateFile, Measurement measurement) throws IOException {
+		return updateWeights(queryFile, stateFile, graphWeightFile, predicateFile, measurement, PathConstants.PREDICATE_EXTRACTOR);
+	}
 
-	private Set<String> getPredicateWeightInPattern(Map<String, Integer> graphWeight, Set<String> pattern) {
-		List<String> predicates = new ArrayList<>();
-		Set<String> predicateWeight = new HashSet<>();
-		for(String pat : pattern) {
-			if (pat.contains(" ")) {
-				String predicate = pat.split(" ")[1].trim();
-				if (!predicates.contains(predicate)) {
-					predicates.add(predicate);
+	/**
+	 * @param extractorType how the predicates are found in the queries, it has to be the one the state was counted with
+	 * @return the dictionary of the predicates in the weighted graph, it is also written to the predicate file
+	 */
+	public static PredicateDictionary updateWeights(String queryFile, String stateFile, String graphWeightFile, String predicateFile, Measurement measurement, PredicateExtractor.Type extractorType) throws IOException {
+		long start = System.currentTimeMillis();
+		CooccurrenceState state;
+		try (Metrics.Stage stage = Metrics.stage("weight update")) {
+			state = CooccurrenceState.loadOrCreate(stateFile, extractorType);
+			String logKey = Path.of(queryFile).toAbsolutePath().normalize().toString();
+
+			QueryCache cache = openQueryCache(predicateFile, extractorType);
+			QueryLogIngestion ingestion = new QueryLogIngestion(extractorType.create(state.dictionary), PathConstants.WEIGHT_THREADS, state.seenQueries, state.dictionary, cache);
+			try (cache; FileChannel log = FileChannel.open(Path.of(queryFile), StandardOpenOption.READ)) {
+				long length = log.size();
+				CooccurrenceState.LogMark mark = state.logs.get(logKey);
+				if (mark != null && (length < mark.position || QueryLogTail.headHash(log, mark.position) != mark.headHash)) {
+					// counted queries are skipped by their fingerprint, so reading the new log from the start is safe
+					System.out.println("Query log " + queryFile + " was replaced, reading it from the start");
+					mark = null;
 				}
-			}
-		}
-		
-		for(int i=0; i<predicates.size()-1; i++) {
-			for(int j=i+1; j<predicates.size(); j++) {
-				String val1 = predicates.get(i).concat(" ").concat(predicates.get(j));
-				String val2 = predicates.get(j).concat(" ").concat(predicates.get(i));
-				if(!val1.contains("?p") && !val1.equals(val2)) {
-					if(!graphWeight.keySet().contains(val1) && !graphWeight.keySet().contains(val2))
-						graphWeight.put(val1, 1);
-					else if(graphWeight.keySet().contains(val1)) {
-						int value = graphWeight.get(val1)+1;
-						graphWeight.remove(val1);
-						graphWeight.put(val1, value);
-						predicateWeight.add(val1);
-					}
-					else if(graphWeight.keySet().contains(val2)) {
-						int value = graphWeight.get(val2)+1;
-						graphWeight.remove(val2);
-						graphWeight.put(val2, value);
-						predicateWeight.add(val2);
-					}
+				long from = mark == null ? 0 : mark.position;
+				// a last record without line break may still be written, it is counted by the update after it was terminated
+				long to = QueryLogTail.completeRecordsEnd(log, from, length);
+				System.out.println("Reading " + (to - from) + " new bytes of query log " + queryFile);
+
+				CooccurrenceCounter newCounts;
+				try (Reader queryLog = QueryLogTail.open(log, from, to)) {
+					newCounts = ingestion.ingest(queryLog);
 				}
+				state.counter.merge(newCounts);
+				state.validQueries += ingestion.getValidQueries();
+				state.queriesWithPatterns += ingestion.getQueriesWithPatterns();
+				state.logs.put(logKey, new CooccurrenceState.LogMark(to, QueryLogTail.headHash(log, to)));
+				printCacheUse(cache);
+				countCacheUse(stage, cache);
+			} catch (NoSuchFileException e) {
+				System.out.println("file not found");
 			}
-		}
-		return predicateWeight;
-	}
+			System.out.println("New input queries are: " + ingestion.getValidQueries() + ", total: " + state.validQueries);
+			stage.count("queries", ingestion.getValidQueries());
 
+			if (measurement != null) {
+				measurement.setQuerySetSize(state.queriesWithPatterns);
+			}
+			System.out.println("Total queries with patterns : " + state.queriesWithPatterns);
+			System.out.println("Total edges of weighted graph of predicates: " + state.counter.size());
 
+			state.canonicalise();
+			new WeightGeneratorFromTestQueries().generateOutputFile(sortedGraph(state.counter, state.dictionary), state.dictionary, graphWeightFile, predicateFile);
+			state.save(stateFile);
 
-	private boolean isQuery(String line) {
-		boolean result = false;
-		try{
-			Query q = QueryFactory.create(line);
-			result = true;
-		}catch(Exception e) {
-			result = false;
+			stage.count("edges", state.counter.size());
 		}
-		return result;
+		System.out.printf("Weight update time (ms): %d \n", System.currentTimeMillis() - start);
+		return state.dictionary;
 	}
 
-
-	private Map<Integer, Set<String>> getQueryPatterns(Set<String> queries) {
-		Map<Integer, Set<String>> patterns = new HashMap<>();
-		int index = 0;
-		for(String query : queries) {
-			try {
-				Set<String> qryPatterns = PatternsFinder.getTriplePatterns(query);
-				patterns.put(index, qryPatterns);
-				index = index+1;
-			}catch(Exception e) {
-				System.err.println("Error getting query pattern, with message: " + e.getMessage());
-			}
+	/**
+	 * @return the cache of the parsed queries next to the predicate file, null if it is disabled
+	 */
+	private static QueryCache openQueryCache(String predicateFile, PredicateExtractor.Type extractorType) throws IOException {
+		if (PathConstants.QUERY_CACHE_BYTES <= 0) {
+			return null;
 		}
-		return patterns;
+		// the predicates found in a query depend on the extractor
+		return QueryCache.open(QueryCache.fileFor(predicateFile), PathConstants.QUERY_CACHE_BYTES, extractorType.name());
 	}
 
-	private String stringArrayToSingleString(String[] input) {
-		StringBuilder sb = new StringBuilder();
-		for (Object obj : input)
-			sb.append(obj.toString()).append("\n");
-		return sb.substring(0, sb.length() - 1);
+	private static void printCacheUse(QueryCache cache) {
+		if (cache != null) {
+			System.out.println("Queries found in the query cache: " + cache.hits() + ", parsed: " + cache.misses());
+		}
 	}
 
+	private static void countCacheUse(Metrics.Stage stage, QueryCache cache) {
+		if (cache != null) {
+			stage.count("cached queries", cache.hits());
+			stage.count("parsed queries", cache.misses());
+		}
+	}
 
-	private Set<String> readQueryFile(String inputFile) {
-		Set<String> fileData = new HashSet<>();
+	/**
+	 * @return the weighted graph with the edges sorted by predicate ids
+	 */
+	private static WeightGraphFile sortedGraph(CooccurrenceCounter graphWeight, PredicateDictionary dictionary) {
+		long[] pairs = graphWeight.sortedPairs();
+		int[] edges = new int[3 * pairs.length];
+		for (int i = 0; i < pairs.length; i++) {
+			edges[3 * i] = CooccurrenceCounter.first(pairs[i]);
+			edges[3 * i + 1] = CooccurrenceCounter.second(pairs[i]);
+			edges[3 * i + 2] = graphWeight.count(pairs[i]);
+		}
+		return new WeightGraphFile(dictionary.size(), edges);
+	}
 
-		try (CSVReader reader = new CSVReader(new BufferedReader(new FileReader(inputFile)))) {
-			String[] queryLines;
-			while ((queryLines = reader.readNext()) != null) {
-				String queryText = stringArrayToSingleString(queryLines);
-				if (isQuery(queryText)) {
-					fileData.add(queryText);
-				}
-			}
-		} catch (Exception e) {
-			System.out.println("file not found");
+	private void generateOutputFile(WeightGraphFile graph, PredicateDictionary dictionary, String graphWeightFile, String predicateFile) throws IOException {
+		try (Writer weightFile = new BufferedWriter(new FileWriter(graphWeightFile), 1 << 16)) {
+			graph.writeText(weightFile);
 		}
-		return fileData;
+		graph.saveNextTo(graphWeightFile);
+		dictionary.write(predicateFile);
 	}
 
 }
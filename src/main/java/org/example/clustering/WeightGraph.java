@@ -0,0 +1,181 @@
+package org.example.clustering;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * WeightGraph is the weighted predicate co-occurrence graph as a symmetric
+ * adjacency matrix together with the label (predicate id) of every node.
+ * <p>
+ * Nodes are numbered in the order their labels first appear in the edge list
+ * and every edge (a, b, w) adds 2w to both (a, b) and (b, a), exactly like
+ * {@code SparseMatrixLabeled.loadMatrix}, so both MCL engines see the same
+ * matrix. This includes that Cugar lets the two nodes of an edge whose
+ * labels both appear for the first time share one row vector, so these two
+ * rows get the sum of both rows.
+ * <p>
+ * {@link #load} reads the binary graph file if there is one and the text file otherwise.
+ */
+class WeightGraph {
+
+    final String[] labels;
+    final CsrMatrix matrix;
+
+    WeightGraph(String[] labels, CsrMatrix matrix) {
+        this.labels = labels;
+        this.matrix = matrix;
+    }
+
+    int size() {
+        return labels.length;
+    }
+
+    static WeightGraph load(String graphWeightFile) throws IOException {
+        if (WeightGraphFile.ensureCurrent(graphWeightFile)) {
+            return fromFile(WeightGraphFile.load(WeightGraphFile.binaryFileFor(graphWeightFile)));
+        }
+        return loadText(graphWeightFile);
+    }
+
+    static WeightGraph fromFile(WeightGraphFile file) {
+        Builder builder = new Builder();
+        int count = file.edgeCount();
+        for (int edge = 0; edge < count; edge++) {
+            if (file.first(edge) != file.second(edge)) {
+                builder.addEdge(file.first(edge), file.second(edge), file.weight(edge));
+            }
+        }
+        return builder.build();
+    }
+
+    static WeightGraph loadText(String graphWeightFile) throws IOException {
+        Builder builder = new Builder();
+        try (BufferedReader reader = new BufferedReader(new FileReader(graphWeightFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] edge = line.split(" ");
+                if (edge[0].equals(edge[1])) {
+                    continue;
+                }
+                builder.addEdge(edge[0], edge[1], Double.parseDouble(edge[2]));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * builds the graph from edges given either all by label or all by predicate id.
+     */
+    static class Builder {
+
+        private final Map<String, Integer> indexOfLabel = new HashMap<>();
+        private int[] indexOfId = new int[0];
+        private int size;
+        private String[] labels = new String[64];
+        // node sharing its row with the next node, or -1
+        private int[] sharedWithNext = new int[64];
+        private int[] rows = new int[256];
+        private int[] cols = new int[256];
+        private double[] vals = new double[256];
+        private int entries;
+
+        void addEdge(String label1, String label2, double weight) {
+            boolean newNodes = !indexOfLabel.containsKey(label1) && !indexOfLabel.containsKey(label2);
+            addEdge(indexOf(label1), indexOf(label2), newNodes, weight);
+        }
+
+        void addEdge(int id1, int id2, double weight) {
+            int bound = Math.max(id1, id2) + 1;
+            if (bound > indexOfId.length) {
+                int oldLength = indexOfId.length;
+                indexOfId = Arrays.copyOf(indexOfId, Math.max(bound, oldLength * 2));
+                Arrays.fill(indexOfId, oldLength, indexOfId.length, -1);
+            }
+            boolean newNodes = indexOfId[id1] < 0 && indexOfId[id2] < 0;
+            addEdge(indexOfId(id1), indexOfId(id2), newNodes, weight);
+        }
+
+        private void addEdge(int index1, int index2, boolean newNodes, double weight) {
+            if (newNodes) {
+                sharedWithNext[index1] = index2;
+            }
+            // loadMatrix adds every edge in both directions twice
+            add(index1, index2, weight + weight);
+            add(index2, index1, weight + weight);
+        }
+
+        private int indexOf(String label) {
+            Integer index = indexOfLabel.get(label);
+            if (index == null) {
+                index = newNode(label);
+                indexOfLabel.put(label, index);
+            }
+            return index;
+        }
+
+        private int indexOfId(int id) {
+            if (indexOfId[id] < 0) {
+                indexOfId[id] = newNode(String.valueOf(id));
+            }
+            return indexOfId[id];
+        }
+
+        private int newNode(String label) {
+            int index = size++;
+            if (index == labels.length) {
+                labels = Arrays.copyOf(labels, index * 2);
+                sharedWithNext = Arrays.copyOf(sharedWithNext, index * 2);
+            }
+            labels[index] = label;
+            sharedWithNext[index] = -1;
+            return index;
+        }
+
+        private void add(int row, int col, double value) {
+            if (entries == rows.length) {
+                rows = Arrays.copyOf(rows, entries * 2);
+                cols = Arrays.copyOf(cols, entries * 2);
+                vals = Arrays.copyOf(vals, entries * 2);
+            }
+            rows[entries] = row;
+            cols[entries] = col;
+            vals[entries] = value;
+            entries++;
+        }
+
+        WeightGraph build() {
+            int[] rowOf = new int[size];
+            int sharedRows = 0;
+            for (int index = 0; index < size; index++) {
+                rowOf[index] = index;
+                if (index > 0 && sharedWithNext[index - 1] == index) {
+                    rowOf[index] = index - 1;
+                    sharedRows++;
+                }
+            }
+            int count = entries;
+            int[] allRows = Arrays.copyOf(rows, entries + entries);
+            int[] allCols = Arrays.copyOf(cols, allRows.length);
+            double[] allVals = Arrays.copyOf(vals, allRows.length);
+            if (sharedRows > 0) {
+                count = 0;
+                for (int i = 0; i < entries; i++) {
+                    int row = rowOf[rows[i]];
+                    allRows[count] = row;
+                    allCols[count] = cols[i];
+                    allVals[count++] = vals[i];
+                    if (sharedWithNext[row] >= 0) {
+                        allRows[count] = sharedWithNext[row];
+                        allCols[count] = cols[i];
+                        allVals[count++] = vals[i];
+                    }
+                }
+            }
+            return new WeightGraph(Arrays.copyOf(labels, size), CsrMatrix.fromEntries(size, allRows, allCols, allVals, count));
+        }
+    }
+}
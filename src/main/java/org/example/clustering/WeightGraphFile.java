@@ -0,0 +1,228 @@
+package org.example.clustering;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * WeightGraphFile is the binary form of the weighted predicate graph. It is
+ * written next to the graph weight text file (see {@link #binaryFileFor}) and
+ * both MCL engines load it instead of parsing the text file. A binary file
+ * which was written for another state of the text file is built again from
+ * the text file, see {@link #ensureCurrent}.
+ * <p>
+ * Layout: magic, version, node count (every predicate id is below it), edge
+ * count, the CRC32 of the edges and size and modification time of the text
+ * file, followed by one (first id, second id, weight) int triple per edge in
+ * the order of the text file. The file is written with a single channel write
+ * and read through a memory mapping.
+ * <p>
+ * {@link #main} prints a file as the text edge list for offline tools.
+ */
+public final class WeightGraphFile {
+
+    private static final int MAGIC = 0x50434d47; // "PCMG"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 5 * Integer.BYTES + 2 * Long.BYTES;
+    private static final int EDGE_BYTES = 3 * Integer.BYTES;
+
+    final int nodeCount;
+    // first id, second id and weight of every edge
+    final int[] edges;
+
+    WeightGraphFile(int nodeCount, int[] edges) {
+        this.nodeCount = nodeCount;
+        this.edges = edges;
+    }
+
+    int edgeCount() {
+        return edges.length / 3;
+    }
+
+    int first(int edge) {
+        return edges[3 * edge];
+    }
+
+    int second(int edge) {
+        return edges[3 * edge + 1];
+    }
+
+    int weight(int edge) {
+        return edges[3 * edge + 2];
+    }
+
+    /**
+     * @return the binary graph file stored next to the given graph weight file
+     */
+    static String binaryFileFor(String graphWeightFile) {
+        if (graphWeightFile.endsWith(".txt")) {
+            return graphWeightFile.substring(0, graphWeightFile.length() - ".txt".length()) + ".bin";
+        }
+        return graphWeightFile + ".bin";
+    }
+
+    /**
+     * a binary form which was written before the text file changed, e.g. by
+     * another tool or by hand, is built again from the text file.
+     *
+     * @return whether the graph weight file has a binary form next to it
+     */
+    static boolean ensureCurrent(String graphWeightFile) throws IOException {
+        Path binaryFile = Path.of(binaryFileFor(graphWeightFile));
+        if (!Files.exists(binaryFile)) {
+            return false;
+        }
+        Path textFile = Path.of(graphWeightFile);
+        if (Files.exists(textFile) && !isWrittenFor(binaryFile, textFile)) {
+            System.out.println("Building " + binaryFile + " again, " + graphWeightFile + " changed since it was written");
+            loadText(graphWeightFile).saveNextTo(graphWeightFile);
+        }
+        return true;
+    }
+
+    private static boolean isWrittenFor(Path binaryFile, Path textFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(binaryFile, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return false;
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return false;
+            }
+            header.position(5 * Integer.BYTES);
+            return header.getLong() == Files.size(textFile) && header.getLong() == Files.getLastModifiedTime(textFile).toMillis();
+        }
+    }
+
+    /**
+     * write the binary form next to the graph weight text file, which has to be written before.
+     */
+    void saveNextTo(String graphWeightFile) throws IOException {
+        Path textFile = Path.of(graphWeightFile);
+        save(binaryFileFor(graphWeightFile), Files.size(textFile), Files.getLastModifiedTime(textFile).toMillis());
+    }
+
+    private void save(String file, long textSize, long textModified) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + edges.length * Integer.BYTES);
+        buffer.position(HEADER_BYTES);
+        buffer.asIntBuffer().put(edges);
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), HEADER_BYTES, buffer.capacity() - HEADER_BYTES);
+
+        buffer.position(0);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(nodeCount).putInt(edgeCount()).putInt((int) checksum.getValue());
+        buffer.putLong(textSize).putLong(textModified);
+        buffer.position(0);
+        try (FileChannel channel = FileChannel.open(Path.of(file), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    static WeightGraphFile load(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(file), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(file + " is not a weight graph file");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a weight graph file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported weight graph version " + version + " in " + file);
+            }
+            int nodeCount = buffer.getInt();
+            int edgeCount = buffer.getInt();
+            int expectedChecksum = buffer.getInt();
+            // size and modification time of the text file
+            buffer.position(HEADER_BYTES);
+            if (edgeCount < 0 || buffer.remaining() != (long) edgeCount * EDGE_BYTES) {
+                throw new IOException(file + " is truncated, expected " + edgeCount + " edges");
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.duplicate());
+            if ((int) checksum.getValue() != expectedChecksum) {
+                throw new IOException("Checksum mismatch in " + file);
+            }
+            int[] edges = new int[3 * edgeCount];
+            buffer.asIntBuffer().get(edges);
+            return new WeightGraphFile(nodeCount, edges);
+        }
+    }
+
+    /**
+     * load the graph belonging to the graph weight file, the binary form is
+     * preferred if it exists.
+     */
+    static WeightGraphFile forGraphWeightFile(String graphWeightFile) throws IOException {
+        if (ensureCurrent(graphWeightFile)) {
+            return load(binaryFileFor(graphWeightFile));
+        }
+        return loadText(graphWeightFile);
+    }
+
+    private static WeightGraphFile loadText(String graphWeightFile) throws IOException {
+        int[] edges = new int[3 * 1024];
+        int length = 0;
+        int nodeCount = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(graphWeightFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] edge = line.split(" ");
+                int first = Integer.parseInt(edge[0]);
+                int second = Integer.parseInt(edge[1]);
+                if (length == edges.length) {
+                    edges = Arrays.copyOf(edges, 2 * length);
+                }
+                edges[length++] = first;
+                edges[length++] = second;
+                edges[length++] = (int) Double.parseDouble(edge[2]);
+                nodeCount = Math.max(nodeCount, Math.max(first, second) + 1);
+            }
+        }
+        return new WeightGraphFile(nodeCount, Arrays.copyOf(edges, length));
+    }
+
+    /**
+     * write the edges as "first second weight" lines, the format of the graph weight text file.
+     */
+    void writeText(Writer writer) throws IOException {
+        int count = edgeCount();
+        for (int edge = 0; edge < count; edge++) {
+            writer.write(first(edge) + " " + second(edge) + " " + weight(edge) + "\n");
+        }
+    }
+
+    /**
+     * print the header and the edges of a binary graph file, arguments: graph file [text file]
+     */
+    public static void main(String[] args) throws IOException {
+        String file = args.length > 0 ? args[0] : binaryFileFor(PathConstants.GRAPH_WEIGHT_FILE);
+        WeightGraphFile graph = load(file);
+        System.out.println("Nodes: " + graph.nodeCount + ", edges: " + graph.edgeCount());
+        if (args.length > 1) {
+            try (Writer writer = Files.newBufferedWriter(Path.of(args[1]), StandardCharsets.UTF_8)) {
+                graph.writeText(writer);
+            }
+        } else {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            graph.writeText(writer);
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package org.example.clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * WeightGraphOrder finds the order in which the original weight generator
+ * wrote the edges of the weighted graph and numbered the predicates. MCL
+ * depends on both, so the same order gives the same clusters as before.
+ * <p>
+ * That generator kept the valid query texts in a HashSet and visited them in
+ * its iteration order. The predicate pairs of every query were counted in a
+ * HashMap keyed by "predicate1 predicate2". A pair kept the orientation it was
+ * first counted with and moved to the end of its bin whenever it was counted
+ * again. The edges were written in the iteration order of that map, and the
+ * predicates were numbered in the order they first appeared in the edges.
+ * <p>
+ * The workers of {@link QueryLogIngestion} record, for every query with at
+ * least two predicates, its position in the log, the String hash of its text
+ * and its predicates in the order of the extractor. The HashSet iterates its
+ * bins in index order and every bin in insertion order, so the queries are
+ * sorted by bin and position. The pairs are then counted again in a HashMap
+ * whose keys have the hash, equality and order of the "predicate1 predicate2"
+ * strings. Only a bin of eight or more colliding query hashes, which the
+ * HashSet turns into a tree, can be ordered differently.
+ */
+final class WeightGraphOrder {
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private final List<Recorder> recorders = new ArrayList<>();
+
+    /**
+     * the queries one worker counted, in the order of the log.
+     */
+    static final class Recorder {
+
+        private long[] sequences = new long[64];
+        private int[] hashes = new int[64];
+        private int[][] predicateIds = new int[64][];
+        private int size;
+
+        /**
+         * @param sequence position of the query among the distinct queries of the log
+         * @param hash String hash of the query text
+         * @param ids distinct predicate ids of the query in the order of the extractor
+         */
+        void add(long sequence, int hash, int[] ids) {
+            if (ids.length < 2) {
+                return;
+            }
+            if (size == sequences.length) {
+                sequences = Arrays.copyOf(sequences, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+                predicateIds = Arrays.copyOf(predicateIds, size * 2);
+            }
+            sequences[size] = sequence;
+            hashes[size] = hash;
+            predicateIds[size] = ids;
+            size++;
+        }
+    }
+
+    /**
+     * @return a recorder for one worker
+     */
+    synchronized Recorder newRecorder() {
+        Recorder recorder = new Recorder();
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    /**
+     * @param dictionary the dictionary of the recorded predicate ids
+     * @param validQueries number of distinct queries which could be parsed, they were all in the HashSet
+     * @return the predicate pairs in the order of the original HashMap, a pair as first id in the upper
+     *         and second id in the lower half, in the orientation it was first counted with
+     */
+    long[] pairOrder(PredicateDictionary dictionary, long validQueries) {
+        PairReplay replay = new PairReplay(dictionary);
+        for (int[] ids : queryOrder(validQueries)) {
+            replay.countQuery(ids);
+        }
+        long[] pairs = new long[replay.pairs.size()];
+        int index = 0;
+        for (PairKey key : replay.pairs.keySet()) {
+            pairs[index++] = ((long) key.first << 32) | (key.second & 0xffffffffL);
+        }
+        return pairs;
+    }
+
+    /**
+     * @return the predicates of the pairs, numbered in the order they first appear in the pairs
+     */
+    static PredicateDictionary numbering(long[] pairOrder, PredicateDictionary dictionary) {
+        PredicateDictionary numbered = new PredicateDictionary();
+        for (long pair : pairOrder) {
+            numbered.getOrAdd(dictionary.predicate((int) (pair >>> 32)));
+            numbered.getOrAdd(dictionary.predicate((int) pair));
+        }
+        return numbered;
+    }
+
+    /**
+     * @return the predicate ids of the recorded queries in the iteration order of the HashSet
+     */
+    private int[][] queryOrder(long validQueries) {
+        int count = 0;
+        for (Recorder recorder : recorders) {
+            count += recorder.size;
+        }
+        // the recorders are in log order each, merge them into one list in log order
+        int[] hashes = new int[count];
+        int[][] predicateIds = new int[count][];
+        int[] next = new int[recorders.size()];
+        for (int i = 0; i < count; i++) {
+            int first = -1;
+            for (int r = 0; r < recorders.size(); r++) {
+                Recorder recorder = recorders.get(r);
+                if (next[r] < recorder.size
+                        && (first < 0 || recorder.sequences[next[r]] < recorders.get(first).sequences[next[first]])) {
+                    first = r;
+                }
+            }
+            Recorder recorder = recorders.get(first);
+            hashes[i] = recorder.hashes[next[first]];
+            predicateIds[i] = recorder.predicateIds[next[first]];
+            next[first]++;
+        }
+
+        int mask = capacity(validQueries) - 1;
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            int h = hashes[i];
+            keys[i] = ((long) ((h ^ (h >>> 16)) & mask) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[][] ordered = new int[count][];
+        for (int i = 0; i < count; i++) {
+            ordered[i] = predicateIds[(int) keys[i]];
+        }
+        return ordered;
+    }
+
+    /**
+     * @return table size of a HashSet with the default capacity and load factor after adding that many elements
+     */
+    static int capacity(long elements) {
+        int capacity = 16;
+        while (capacity < MAXIMUM_CAPACITY && elements > capacity / 4 * 3) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * counts the pairs of the queries like the original weight generator in a HashMap.
+     */
+    private static final class PairReplay {
+
+        private final String[] predicates;
+        private final int[] hashes;
+        // 31 to the power of the length of every predicate
+        private final int[] powers;
+        private final Map<PairKey, PairKey> pairs = new HashMap<>();
+        private final PairKey probe;
+
+        PairReplay(PredicateDictionary dictionary) {
+            int count = dictionary.size();
+            predicates = new String[count];
+            hashes = new int[count];
+            powers = new int[count];
+            for (int id = 0; id < count; id++) {
+                predicates[id] = dictionary.predicate(id);
+                hashes[id] = predicates[id].hashCode();
+                int power = 1;
+                for (int i = 0; i < predicates[id].length(); i++) {
+                    power *= 31;
+                }
+                powers[id] = power;
+            }
+            probe = new PairKey(predicates, 0, 0, 0);
+        }
+
+        void countQuery(int[] ids) {
+            for (int i = 0; i < ids.length - 1; i++) {
+                for (int j = i + 1; j < ids.length; j++) {
+                    // a counted pair is removed and put again, which moves it to the end of its bin
+                    PairKey key = remove(ids[i], ids[j]);
+                    if (key == null) {
+                        key = remove(ids[j], ids[i]);
+                    }
+                    if (key == null) {
+                        key = new PairKey(predicates, ids[i], ids[j], hash(ids[i], ids[j]));
+                    }
+                    pairs.put(key, key);
+                }
+            }
+        }
+
+        private PairKey remove(int first, int second) {
+            probe.first = first;
+            probe.second = second;
+            probe.hash = hash(first, second);
+            return pairs.remove(probe);
+        }
+
+        /**
+         * @return hash of the String first + " " + second
+         */
+        private int hash(int first, int second) {
+            return (hashes[first] * 31 + ' ') * powers[second] + hashes[second];
+        }
+    }
+
+    /**
+     * stands for the key "predicate1 predicate2" without building the String.
+     */
+    private static final class PairKey implements Comparable<PairKey> {
+
+        private final String[] predicates;
+        int first;
+        int second;
+        int hash;
+
+        PairKey(String[] predicates, int first, int second, int hash) {
+            this.predicates = predicates;
+            this.first = first;
+            this.second = second;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof PairKey)) {
+                return false;
+            }
+            PairKey key = (PairKey) other;
+            return first == key.first && second == key.second;
+        }
+
+        /**
+         * only used by the HashMap inside bins it turned into trees.
+         */
+        @Override
+        public int compareTo(PairKey other) {
+            return toString().compareTo(other.toString());
+        }
+
+        @Override
+        public String toString() {
+            return predicates[first] + " " + predicates[second];
+        }
+    }
+}